@@ -12,18 +12,31 @@ import se.embargo.core.databinding.observable.IObservableValue;
 import se.embargo.core.databinding.observable.WritableValue;
 import se.embargo.core.io.Files;
 import se.embargo.core.widget.ListPreferenceDialog;
+import se.embargo.sonogram.debug.FramerateCounter;
+import se.embargo.sonogram.debug.ProfileReporter;
+import se.embargo.sonogram.dsp.BasebandCorrelationFilter;
+import se.embargo.sonogram.dsp.BlockedCorrelationFilter;
+import se.embargo.sonogram.dsp.CheckpointFilter;
 import se.embargo.sonogram.dsp.CompositeFilter;
-import se.embargo.sonogram.dsp.CrossCorrelationFilter;
-import se.embargo.sonogram.dsp.FramerateCounter;
+import se.embargo.sonogram.dsp.FftCorrelationFilter;
+import se.embargo.sonogram.dsp.FixedPointCorrelationFilter;
+import se.embargo.sonogram.dsp.FusedCompositeFilter;
 import se.embargo.sonogram.dsp.ISignalFilter;
 import se.embargo.sonogram.dsp.MeanPeakDetector;
 import se.embargo.sonogram.dsp.MonoFilter;
+import se.embargo.sonogram.dsp.Profiler;
+import se.embargo.sonogram.dsp.SequencedFilter;
 import se.embargo.sonogram.dsp.SmoothenFilter;
+import se.embargo.sonogram.io.AsyncStreamWriter;
+import se.embargo.sonogram.io.FrameScheduler;
 import se.embargo.sonogram.io.ISonar;
+import se.embargo.sonogram.io.PlaybackClock;
 import se.embargo.sonogram.io.Sonar;
 import se.embargo.sonogram.io.StreamReader;
 import se.embargo.sonogram.io.StreamWriter;
 import se.embargo.sonogram.shader.SonogramSurface;
+import se.embargo.sonogram.stream.OutputCache;
+import se.embargo.sonogram.stream.StreamFormat;
 import se.embargo.sonogram.widget.FocusPreferenceDialog;
 
 import android.app.Activity;
@@ -61,6 +74,26 @@ public class MainActivity extends Activity {
 	
 	private static final String PREF_VISUALIZATION = "visualization";
 	
+	/**
+	 * Hidden preference to record without compression so recordings can be memory-mapped on playback
+	 */
+	private static final String PREF_UNCOMPRESSED = "uncompressed";
+	
+	/**
+	 * Hidden preference selecting the matched filter, one of fft, blocked, baseband or fixed
+	 */
+	private static final String PREF_CORRELATION = "correlation";
+	
+	/**
+	 * Interval between logging filter stage latencies in milliseconds
+	 */
+	private static final long PROFILE_INTERVAL = 10000;
+	
+	/**
+	 * Maximum disk usage of cached correlation output for replayed recordings
+	 */
+	private static final long OUTPUT_CACHE_SIZE = 256L * 1024 * 1024;
+	
 	private static final String DIRECTORY = "Sonogram";
 	private static final String FILENAME_PATTERN = "IMGS%04d";
 
@@ -76,6 +109,7 @@ public class MainActivity extends Activity {
 	
 	private SonogramSurface _sonogram;
 	private ISonar _sonar;
+	private OutputCache _outputcache;
 	
 	/**
 	 * Picture or video mode.
@@ -121,6 +155,7 @@ public class MainActivity extends Activity {
 		setContentView(R.layout.main_activity);
 		_sonogram = (SonogramSurface)findViewById(R.id.sonogramSurface);
 
+		_outputcache = new OutputCache(new File(getCacheDir(), "output"), OUTPUT_CACHE_SIZE);
 		_sonar = null;
 		if (Intent.ACTION_VIEW.equals(getIntent().getAction())) {
 			Uri url = getIntent().getData();
@@ -171,6 +206,7 @@ public class MainActivity extends Activity {
 	protected void onPause() {
 		super.onPause();
 		_sonar.stop();
+		_outputcache.close();
 		_prefs.unregisterOnSharedPreferenceChangeListener(_prefsListener);
 	}
 
@@ -181,14 +217,71 @@ public class MainActivity extends Activity {
 		return true;
 	}
 
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		// Playback controls only apply when reading a recording
+		final boolean playback = _sonar instanceof StreamReader;
+		menu.setGroupVisible(R.id.playbackGroup, playback);
+		
+		if (playback) {
+			StreamReader reader = (StreamReader)_sonar;
+			PlaybackClock clock = reader.getClock();
+			menu.findItem(R.id.playbackPauseButton).setChecked(clock.isPaused());
+			menu.findItem(R.id.playbackStepButton).setEnabled(clock.isPaused());
+			menu.findItem(R.id.playbackSlowerButton).setEnabled(!reader.isUnpaced() && clock.getSpeed() > PlaybackClock.MIN_SPEED);
+			menu.findItem(R.id.playbackFasterButton).setEnabled(!reader.isUnpaced() && clock.getSpeed() < PlaybackClock.MAX_SPEED);
+			menu.findItem(R.id.playbackUnpacedButton).setChecked(reader.isUnpaced());
+		}
+		
+		return super.onPrepareOptionsMenu(menu);
+	}
+
 	@Override
 	public boolean onOptionsItemSelected(MenuItem item) {
 		switch (item.getItemId()) {
+			case R.id.playbackPauseButton:
+				getPlaybackClock().setPaused(!item.isChecked());
+				return true;
+			
+			case R.id.playbackStepButton:
+				getPlaybackClock().step();
+				return true;
+			
+			case R.id.playbackSlowerButton:
+				setPlaybackSpeed(getPlaybackClock().getSpeed() / 2);
+				return true;
+			
+			case R.id.playbackFasterButton:
+				setPlaybackSpeed(getPlaybackClock().getSpeed() * 2);
+				return true;
+			
+			case R.id.playbackUnpacedButton:
+				((StreamReader)_sonar).setUnpaced(!item.isChecked());
+				return true;
+			
 			default:
 				return super.onOptionsItemSelected(item);
 		}
 	}
 	
+	/**
+	 * @return	Filter delivering frames in capture order, with room for every frame the sonar may be processing
+	 */
+	private SequencedFilter createSequencedFilter(ISignalFilter filter) {
+		FrameScheduler scheduler = _sonar.getScheduler();
+		return new SequencedFilter(filter, scheduler.getThreads() + scheduler.getCapacity());
+	}
+	
+	private PlaybackClock getPlaybackClock() {
+		return ((StreamReader)_sonar).getClock();
+	}
+	
+	private void setPlaybackSpeed(float speed) {
+		PlaybackClock clock = getPlaybackClock();
+		clock.setSpeed(speed);
+		Toast.makeText(this, getString(R.string.playback_speed, clock.getSpeed()), Toast.LENGTH_SHORT).show();
+	}
+	
 	private class CameraModeButtonListener implements View.OnClickListener {
 		@Override
 		public void onClick(View v) {
@@ -247,7 +340,7 @@ public class MainActivity extends Activity {
 	
 	private class TakePhotoListener implements View.OnClickListener, StreamWriter.IStreamListener {
 		private ISignalFilter _prevFilter;
-		private StreamWriter _outputFilter;
+		private AsyncStreamWriter _outputFilter;
 		private File _file;
 
 		@Override
@@ -268,9 +361,9 @@ public class MainActivity extends Activity {
 			}
 			
 			_prevFilter = _sonar.getFilter();
-			_outputFilter = new StreamWriter(os, _baseline, 1);
+			_outputFilter = new AsyncStreamWriter(os, 1);
 			_outputFilter.setListener(this);
-			_sonar.init(_sonar.getController(), new CompositeFilter(_outputFilter, _prevFilter));
+			_sonar.init(_sonar.getController(), new CompositeFilter(createSequencedFilter(_outputFilter), _prevFilter));
 		}
 		
 		@Override
@@ -291,7 +384,7 @@ public class MainActivity extends Activity {
 		private static final long PRESS_DELAY = 350;
 		private long _prevEvent = 0;
 		private ISignalFilter _prevFilter;
-		private StreamWriter _outputFilter;
+		private AsyncStreamWriter _outputFilter;
 		
 		@Override
 		public boolean onTouch(View v, MotionEvent event) {
@@ -345,9 +438,10 @@ public class MainActivity extends Activity {
 			}
 			
 			_prevFilter = _sonar.getFilter();
-			_outputFilter = new StreamWriter(os, _baseline);
+			int compression = _prefs.getBoolean(PREF_UNCOMPRESSED, false) ? StreamFormat.getNativeUncompressed() : StreamFormat.COMPRESSION_PREDICTIVE;
+			_outputFilter = new AsyncStreamWriter(new StreamWriter(os, Integer.MAX_VALUE, compression), AsyncStreamWriter.CAPACITY);
 			_outputFilter.setListener(this);
-			_sonar.init(_sonar.getController(), new CompositeFilter(_outputFilter, _prevFilter));
+			_sonar.init(_sonar.getController(), new CompositeFilter(createSequencedFilter(_outputFilter), _prevFilter));
 			_cameraState.setValue(RecordState.Recording);
 		}
 		
@@ -374,16 +468,32 @@ public class MainActivity extends Activity {
 		}
 	}
 	
+	private ISignalFilter createCorrelationFilter() {
+		String value = _prefs.getString(PREF_CORRELATION, "fft");
+		if ("blocked".equals(value)) {
+			return new BlockedCorrelationFilter();
+		}
+		else if ("baseband".equals(value)) {
+			return new BasebandCorrelationFilter();
+		}
+		else if ("fixed".equals(value)) {
+			return new FixedPointCorrelationFilter();
+		}
+		
+		return new FftCorrelationFilter();
+	}
+	
 	/**
 	 * Listens for preference changes and applies updates
 	 */
 	private class PreferencesListener implements SharedPreferences.OnSharedPreferenceChangeListener {
 		@Override
 		public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
-			if (PREF_VISUALIZATION.equals(key)) {
+			if (PREF_VISUALIZATION.equals(key) || PREF_CORRELATION.equals(key)) {
 				String value = prefs.getString(PREF_VISUALIZATION, getString(R.string.pref_visualization_default));
-				CompositeFilter filter = new CompositeFilter(new CompositeFilter(
-					new CrossCorrelationFilter()
+				// Replayed recordings reuse the correlation output of earlier replays
+				CompositeFilter filter = new CompositeFilter(new FusedCompositeFilter(
+					new CheckpointFilter(_outputcache, createCorrelationFilter())
 					, new SmoothenFilter()
 					, new MeanPeakDetector()
 					/*, new AmplificationFilter()
@@ -394,8 +504,8 @@ public class MainActivity extends Activity {
 				}
 				else if ("raw".equals(value)) {
 					_sonogram.setVisualization(SonogramSurface.Visualization.Histogram);
-					filter = new CompositeFilter(
-						new CrossCorrelationFilter()
+					filter = new FusedCompositeFilter(
+						new CheckpointFilter(_outputcache, createCorrelationFilter())
 						, new MonoFilter()
 						, new SmoothenFilter()
 						, new MeanPeakDetector()
@@ -403,6 +513,9 @@ public class MainActivity extends Activity {
 						//, new LeadingEdgeFilter(0, 2)
 						);
 				}
+				else if ("waterfall".equals(value)) {
+					_sonogram.setVisualization(SonogramSurface.Visualization.Waterfall);
+				}
 				else if ("triangulate".equals(value)) {
 					_sonogram.setVisualization(SonogramSurface.Visualization.Triangulate);
 				}
@@ -411,7 +524,11 @@ public class MainActivity extends Activity {
 					filter = new CompositeFilter();
 				}
 				
-				_sonar.init(_sonogram, new CompositeFilter(filter, _sonogram, new FramerateCounter()));
+				// Rendering and frame rate statistics need frames in capture order
+				Profiler profiler = new Profiler();
+				_sonar.init(_sonogram, new CompositeFilter(
+					profiler.instrument(new CompositeFilter(filter, createSequencedFilter(new CompositeFilter(_sonogram, new FramerateCounter())))),
+					new ProfileReporter(profiler, PROFILE_INTERVAL)));
 				
 				// Scale the surface to avoid rendering the full resolution
 				DisplayMetrics dm = new DisplayMetrics();
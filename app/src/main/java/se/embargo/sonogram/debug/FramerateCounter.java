@@ -1,6 +1,7 @@
-package se.embargo.sonogram.dsp;
-import android.util.Log;
+package se.embargo.sonogram.debug;
+
 import se.embargo.sonogram.dsp.ISignalFilter;
+import android.util.Log;
 
 public class FramerateCounter implements ISignalFilter {
 	private static final String TAG = "FramerateFilter";
@@ -0,0 +1,44 @@
+package se.embargo.sonogram.debug;
+
+import se.embargo.sonogram.dsp.ISignalFilter;
+import se.embargo.sonogram.dsp.Profiler;
+import android.util.Log;
+
+/**
+ * Periodically logs the stage latencies collected by a profiler.
+ */
+public class ProfileReporter implements ISignalFilter {
+	private static final String TAG = "ProfileReporter";
+	
+	private final Profiler _profiler;
+	private final long _interval;
+	private long _laststat = 0;
+	
+	/**
+	 * @param profiler	Profiler to report
+	 * @param interval	Time between reports in milliseconds
+	 */
+	public ProfileReporter(Profiler profiler, long interval) {
+		_profiler = profiler;
+		_interval = interval * 1000000L;
+	}
+
+	@Override
+	public void accept(Item item) {
+		long ts = System.nanoTime();
+		
+		synchronized (this) {
+			if (_laststat == 0) {
+				_laststat = ts;
+			}
+			
+			if (ts - _laststat < _interval) {
+				return;
+			}
+			
+			_laststat = ts;
+		}
+		
+		Log.d(TAG, "Stage latencies\n" + _profiler.report());
+	}
+}
@@ -0,0 +1,205 @@
+package se.embargo.sonogram.io;
+
+import java.io.OutputStream;
+
+import se.embargo.sonogram.dsp.ISignalFilter;
+import se.embargo.sonogram.stream.StreamHeader;
+import android.util.Log;
+
+/**
+ * Records frames without blocking the filter workers. The samples of frames are
+ * copied into a fixed number of slots, allocated along with the header of the
+ * recording, and a dedicated thread compresses and writes them in batches through
+ * a StreamWriter. Frames arriving while all slots are full are dropped and counted
+ * rather than stalling the sonar.
+ */
+public class AsyncStreamWriter implements ISignalFilter {
+	private static final String TAG = "AsyncStreamWriter";
+
+	/**
+	 * Default number of frames which may wait to be written
+	 */
+	public static final int CAPACITY = 16;
+
+	private final StreamWriter _writer;
+
+	/**
+	 * Interleaved samples, capture time and microphone distance of the frames waiting to be written
+	 */
+	private final short[][] _slots;
+	private final long[] _timestamps;
+	private final float[] _baselines;
+
+	/**
+	 * Header of the recording, created from the first frame
+	 */
+	private StreamHeader _header;
+
+	/**
+	 * First slot waiting to be written, and number of slots waiting
+	 */
+	private int _head = 0, _count = 0;
+
+	/**
+	 * Set when no more frames should be accepted
+	 */
+	private boolean _closing = false;
+	private volatile boolean _closed = false;
+
+	private long _written = 0, _overflows = 0;
+	private volatile StreamWriter.IStreamListener _listener = null;
+
+	/**
+	 * @param writer	Writer to delegate to, only used from the writer thread
+	 * @param capacity	Number of frames which may wait to be written
+	 */
+	public AsyncStreamWriter(StreamWriter writer, int capacity) {
+		_writer = writer;
+		_slots = new short[capacity][];
+		_timestamps = new long[capacity];
+		_baselines = new float[capacity];
+
+		Thread thread = new Thread(new Worker(), TAG);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public AsyncStreamWriter(OutputStream os, int itemlimit) {
+		this(new StreamWriter(os, itemlimit), CAPACITY);
+	}
+
+	public AsyncStreamWriter(OutputStream os) {
+		this(os, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param listener	Called from the writer thread once the recording has been closed
+	 * 					and the number of frames written is final
+	 */
+	public void setListener(StreamWriter.IStreamListener listener) {
+		_listener = listener;
+	}
+
+	/**
+	 * @return	Number of frames written to the recording
+	 */
+	public synchronized long getWritten() {
+		return _written;
+	}
+
+	/**
+	 * @return	Number of frames dropped because the writer thread fell behind
+	 */
+	public synchronized long getOverflows() {
+		return _overflows;
+	}
+
+	/**
+	 * Stops accepting frames, the frames already accepted are written before
+	 * the recording is closed on the writer thread.
+	 */
+	public synchronized void close() {
+		_closing = true;
+		notifyAll();
+	}
+
+	@Override
+	public void accept(Item item) {
+		if (_closed) {
+			return;
+		}
+
+		synchronized (this) {
+			if (_closing) {
+				return;
+			}
+
+			if (_count == _slots.length) {
+				_overflows++;
+				return;
+			}
+
+			if (_header == null) {
+				_header = _writer.createHeader(item);
+				for (int i = 0; i < _slots.length; i++) {
+					_slots[i] = new short[item.samplecount];
+				}
+			}
+			else if (item.samplecount != _header.samplecount) {
+				// Frames of another size don't fit in the recording
+				return;
+			}
+
+			int index = (_head + _count) % _slots.length;
+			item.copySamples(_slots[index], 0);
+			_timestamps[index] = item.timestamp;
+			_baselines[index] = item.baseline;
+
+			_count++;
+			notifyAll();
+		}
+	}
+
+	private class Worker implements Runnable {
+		@Override
+		public void run() {
+			while (true) {
+				StreamHeader header;
+				int head, batch, written = 0;
+
+				synchronized (AsyncStreamWriter.this) {
+					while (_count == 0 && !_closing) {
+						try {
+							AsyncStreamWriter.this.wait();
+						}
+						catch (InterruptedException e) {
+							_closing = true;
+						}
+					}
+
+					if (_count == 0) {
+						break;
+					}
+
+					// The slots in the batch stay reserved until they've been written
+					header = _header;
+					head = _head;
+					batch = _count;
+				}
+
+				for (int i = 0; i < batch; i++) {
+					int index = (head + i) % _slots.length;
+					if (_writer.write(header, _slots[index], 0, _timestamps[index], _baselines[index])) {
+						written++;
+					}
+				}
+
+				synchronized (AsyncStreamWriter.this) {
+					_head = (head + batch) % _slots.length;
+					_count -= batch;
+					_written += written;
+
+					if (_writer.isClosed()) {
+						// Item limit reached or write failure
+						_closing = _closed = true;
+						_count = 0;
+					}
+				}
+			}
+
+			synchronized (AsyncStreamWriter.this) {
+				_closed = true;
+				if (_overflows > 0) {
+					Log.w(TAG, "Dropped " + _overflows + " of " + (_written + _overflows) + " frames while recording");
+				}
+			}
+
+			_writer.close();
+
+			StreamWriter.IStreamListener listener = _listener;
+			if (listener != null) {
+				listener.onClosed();
+			}
+		}
+	}
+}
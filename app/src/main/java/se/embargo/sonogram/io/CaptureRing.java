@@ -0,0 +1,128 @@
+package se.embargo.sonogram.io;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Single producer ring of capture blocks. The audio thread reads directly into
+ * the ring and frames are handed out as views spanning the overlap from the
+ * previous block followed by the block itself, so the overlap is shared rather
+ * than copied. The buffer is laid out as [overlap | block 0 | block 1 | ...],
+ * where the leading overlap mirrors the tail of the last block so that the
+ * frame of block 0 is contiguous as well.
+ *
+ * A frame holds a reference on its own block and on the preceding block, and
+ * the producer only writes into a block once every frame using it has been
+ * released.
+ */
+class CaptureRing {
+	private final short[] _buffer;
+	private final int _overlap, _blocksize, _blockcount;
+	private final AtomicIntegerArray _references;
+
+	/**
+	 * Block currently being written by the producer
+	 */
+	private int _block = 0;
+
+	/**
+	 * Set when a block was skipped so the overlap of the next frame is invalid
+	 */
+	private boolean _resync = true;
+
+	/**
+	 * @param overlap		Number of samples shared between consecutive frames
+	 * @param blocksize		Number of new samples in each frame
+	 * @param blockcount	Number of blocks in the ring
+	 */
+	public CaptureRing(int overlap, int blocksize, int blockcount) {
+		if (overlap > blocksize) {
+			throw new IllegalArgumentException("Overlap " + overlap + " is larger than block size " + blocksize);
+		}
+
+		_overlap = overlap;
+		_blocksize = blocksize;
+		_blockcount = blockcount;
+		_buffer = new short[overlap + blocksize * blockcount];
+		_references = new AtomicIntegerArray(blockcount);
+	}
+
+	/**
+	 * @return	Buffer backing all frames
+	 */
+	public short[] getBuffer() {
+		return _buffer;
+	}
+
+	/**
+	 * @return	Number of samples in each frame
+	 */
+	public int getFrameLength() {
+		return _overlap + _blocksize;
+	}
+
+	/**
+	 * @return	Number of samples in each block
+	 */
+	public int getBlockSize() {
+		return _blocksize;
+	}
+
+	/**
+	 * @return	True if the current block can be written, otherwise the producer must skip it
+	 */
+	public boolean isWritable() {
+		return _references.get(_block) == 0;
+	}
+
+	/**
+	 * @return	Offset into the buffer where the current block starts
+	 */
+	public int getWriteOffset() {
+		return _overlap + _block * _blocksize;
+	}
+
+	/**
+	 * Completes the current block and advances to the next one
+	 * @return	Offset of the frame ending with the completed block, or -1 if
+	 * 			its overlap is not valid and no frame should be produced
+	 */
+	public int publish() {
+		int block = _block;
+		if (block == _blockcount - 1) {
+			// Mirror the tail of the last block into the leading overlap
+			System.arraycopy(_buffer, _buffer.length - _overlap, _buffer, 0, _overlap);
+		}
+
+		_block = (block + 1) % _blockcount;
+
+		if (_resync) {
+			_resync = false;
+			return -1;
+		}
+
+		_references.incrementAndGet(block);
+		_references.incrementAndGet(previous(block));
+		return block * _blocksize;
+	}
+
+	/**
+	 * Skips the current block when it's still referenced by a frame
+	 */
+	public void skip() {
+		_resync = true;
+	}
+
+	/**
+	 * Releases a frame previously returned by publish()
+	 * @param offset	Offset of the frame
+	 */
+	public void release(int offset) {
+		int block = offset / _blocksize;
+		_references.decrementAndGet(block);
+		_references.decrementAndGet(previous(block));
+	}
+
+	private int previous(int block) {
+		return (block + _blockcount - 1) % _blockcount;
+	}
+}
@@ -0,0 +1,215 @@
+package se.embargo.sonogram.io;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Runs frame tasks on a fixed set of worker threads with an explicit policy
+ * for when the workers fall behind. Frames that are not processed are handed
+ * back through ITask.discard() so they can be returned to their pool.
+ * 
+ * Frames are numbered as they're handed to a worker rather than when submitted,
+ * so the frames that are processed have consecutive sequence numbers in the order
+ * they were submitted, and frames dropped from the queue leave no gaps for a 
+ * SequencedFilter to wait for.
+ */
+public class FrameScheduler {
+	private static final String TAG = "FrameScheduler";
+
+	public enum Policy {
+		/**
+		 * Discard the oldest queued frame to make room for the new one
+		 */
+		LatestWins,
+
+		/**
+		 * Block the submitting thread until there's room in the queue
+		 */
+		Block,
+
+		/**
+		 * Discard the new frame when the queue is full
+		 */
+		DropNewest
+	};
+
+	public interface ITask extends Runnable {
+		/**
+		 * Called before run() when the frame is handed to a worker
+		 * @param sequence	Sequence number of the frame
+		 */
+		void dispatch(long sequence);
+		
+		/**
+		 * Called instead of run() when the frame is dropped
+		 */
+		void discard();
+	}
+
+	private final Queue<ITask> _queue;
+	private final int _threads, _capacity;
+	private Policy _policy;
+	
+	/**
+	 * Sequence number of the next frame handed to a worker
+	 */
+	private long _sequence = 0;
+
+	private final AtomicLong _submitted = new AtomicLong(), _dropped = new AtomicLong(), _completed = new AtomicLong();
+
+	/**
+	 * @param name		Name prefix of the worker threads
+	 * @param threads	Number of worker threads
+	 * @param capacity	Number of frames that may wait for a worker
+	 * @param policy	Overload policy
+	 */
+	public FrameScheduler(String name, int threads, int capacity, Policy policy) {
+		_queue = new ArrayDeque<ITask>(capacity);
+		_threads = threads;
+		_capacity = capacity;
+		_policy = policy;
+
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(new Worker(), name + "-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public synchronized void setPolicy(Policy policy) {
+		_policy = policy;
+		notifyAll();
+	}
+
+	public synchronized Policy getPolicy() {
+		return _policy;
+	}
+
+	/**
+	 * @return	Number of worker threads
+	 */
+	public int getThreads() {
+		return _threads;
+	}
+
+	/**
+	 * @return	Number of frames that may wait for a worker
+	 */
+	public int getCapacity() {
+		return _capacity;
+	}
+
+	/**
+	 * @return	Number of frames submitted
+	 */
+	public long getSubmitted() {
+		return _submitted.get();
+	}
+
+	/**
+	 * @return	Number of frames discarded without being processed
+	 */
+	public long getDropped() {
+		return _dropped.get();
+	}
+
+	/**
+	 * @return	Number of frames processed
+	 */
+	public long getCompleted() {
+		return _completed.get();
+	}
+
+	/**
+	 * Queues a frame for processing, depending on the policy this may discard a frame or block.
+	 * @throws InterruptedException	If interrupted while blocked waiting for room in the queue
+	 */
+	public void submit(ITask task) throws InterruptedException {
+		ITask discarded = null;
+		_submitted.incrementAndGet();
+
+		synchronized (this) {
+			while (_queue.size() >= _capacity && _policy == Policy.Block) {
+				wait();
+			}
+
+			if (_queue.size() >= _capacity) {
+				if (_policy == Policy.LatestWins) {
+					discarded = _queue.poll();
+					_queue.offer(task);
+				}
+				else {
+					discarded = task;
+				}
+			}
+			else {
+				_queue.offer(task);
+			}
+
+			notifyAll();
+		}
+
+		if (discarded != null) {
+			_dropped.incrementAndGet();
+			discarded.discard();
+		}
+	}
+
+	/**
+	 * Discards all queued frames
+	 */
+	public void clear() {
+		while (true) {
+			ITask task;
+			synchronized (this) {
+				task = _queue.poll();
+				notifyAll();
+			}
+
+			if (task == null) {
+				break;
+			}
+
+			_dropped.incrementAndGet();
+			task.discard();
+		}
+	}
+
+	private class Worker implements Runnable {
+		@Override
+		public void run() {
+			while (true) {
+				ITask task;
+
+				synchronized (FrameScheduler.this) {
+					while (_queue.isEmpty()) {
+						try {
+							FrameScheduler.this.wait();
+						}
+						catch (InterruptedException e) {
+							return;
+						}
+					}
+
+					// Wake up any producer blocked on a full queue
+					task = _queue.poll();
+					task.dispatch(_sequence++);
+					FrameScheduler.this.notifyAll();
+				}
+
+				// Errors are caught as well, a worker that exits is never replaced
+				try {
+					task.run();
+				}
+				catch (Throwable e) {
+					Log.e(TAG, e.getMessage(), e);
+				}
+
+				_completed.incrementAndGet();
+			}
+		}
+	}
+}
@@ -9,6 +9,11 @@ public interface ISonar {
 	
 	public abstract ISignalFilter getFilter();
 	
+	/**
+	 * @return	Scheduler processing the frames, exposes the number of dropped frames 
+	 */
+	public abstract FrameScheduler getScheduler();
+	
 	public abstract void start();
 
 	public abstract void stop();
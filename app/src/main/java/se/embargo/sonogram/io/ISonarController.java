@@ -1,21 +1,21 @@
 package se.embargo.sonogram.io;
 
-import android.graphics.Rect;
+import se.embargo.sonogram.dsp.Bounds;
 
 public interface ISonarController {
 	/**
 	 * Sets the maximum resolution supported by this sonar
 	 * @param	resolution	Max supported resolution
 	 */
-	void setSonarResolution(Rect resolution);
+	void setSonarResolution(Bounds resolution);
 
 	/**
 	 * @note	Must not lock or the audio reader thread will be blocked
 	 */
-	Rect getSonarWindow();
+	Bounds getSonarWindow();
 
 	/**
 	 * @note	Must not lock or the audio reader thread will be blocked
 	 */
-	Rect getSonarCanvas();
+	Bounds getSonarCanvas();
 }
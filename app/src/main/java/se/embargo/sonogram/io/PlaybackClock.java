@@ -0,0 +1,133 @@
+package se.embargo.sonogram.io;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces playback of recorded frames against System.nanoTime() deadlines.
+ * Deadlines advance by a fixed interval so that sleeping late doesn't
+ * accumulate drift, and the clock resynchronizes rather than bursting
+ * when playback has fallen far behind.
+ */
+public class PlaybackClock {
+	public static final float MIN_SPEED = 0.25f, MAX_SPEED = 16.0f;
+
+	/**
+	 * Number of frame intervals playback may fall behind before the clock resynchronizes
+	 */
+	private static final int MAX_LAG = 4;
+
+	/**
+	 * Time between frames at normal speed in nanoseconds
+	 */
+	private long _interval;
+
+	private float _speed = 1.0f;
+	private boolean _paused = false, _unpaced = false;
+
+	/**
+	 * Number of frames to release while paused
+	 */
+	private int _steps = 0;
+
+	/**
+	 * Deadline of the next frame, or 0 when the clock should restart from the current time
+	 */
+	private long _deadline = 0;
+
+	/**
+	 * @param interval	Time between frames at normal speed in nanoseconds
+	 */
+	public PlaybackClock(long interval) {
+		_interval = Math.max(interval, 1);
+	}
+
+	/**
+	 * @param interval	Time between frames at normal speed in nanoseconds, e.g. once the recording has been opened
+	 */
+	public synchronized void setInterval(long interval) {
+		_interval = Math.max(interval, 1);
+		_deadline = 0;
+		notifyAll();
+	}
+
+	/**
+	 * @param speed	Playback speed relative to real time, clamped to [MIN_SPEED, MAX_SPEED]
+	 */
+	public synchronized void setSpeed(float speed) {
+		_speed = Math.max(MIN_SPEED, Math.min(speed, MAX_SPEED));
+		_deadline = 0;
+		notifyAll();
+	}
+
+	public synchronized float getSpeed() {
+		return _speed;
+	}
+
+	public synchronized void setPaused(boolean paused) {
+		_paused = paused;
+		_steps = 0;
+		_deadline = 0;
+		notifyAll();
+	}
+
+	public synchronized boolean isPaused() {
+		return _paused;
+	}
+
+	/**
+	 * Releases a single frame while paused
+	 */
+	public synchronized void step() {
+		_steps++;
+		notifyAll();
+	}
+
+	/**
+	 * @param unpaced	True to release frames as fast as they're requested, pausing still applies
+	 */
+	public synchronized void setUnpaced(boolean unpaced) {
+		_unpaced = unpaced;
+		_deadline = 0;
+		notifyAll();
+	}
+
+	public synchronized boolean isUnpaced() {
+		return _unpaced;
+	}
+
+	/**
+	 * Blocks until the next frame is due
+	 * @throws InterruptedException	If interrupted while waiting
+	 */
+	public synchronized void await() throws InterruptedException {
+		while (true) {
+			if (_paused) {
+				if (_steps > 0) {
+					_steps--;
+					return;
+				}
+
+				wait();
+				continue;
+			}
+
+			if (_unpaced) {
+				return;
+			}
+
+			final long now = System.nanoTime();
+			final long interval = (long)(_interval / _speed);
+			if (_deadline == 0 || now - _deadline > MAX_LAG * interval) {
+				_deadline = now;
+			}
+
+			final long remaining = _deadline - now;
+			if (remaining <= 0) {
+				_deadline += interval;
+				return;
+			}
+
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+	}
+}
@@ -2,19 +2,18 @@ package se.embargo.sonogram.io;
 
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import se.embargo.core.concurrent.Parallel;
 import se.embargo.core.databinding.observable.IObservableValue;
+import se.embargo.sonogram.dsp.Bounds;
 import se.embargo.sonogram.dsp.CompositeFilter;
-import se.embargo.sonogram.dsp.FramerateCounter;
+import se.embargo.sonogram.debug.FramerateCounter;
 import se.embargo.sonogram.dsp.ISignalFilter;
+import se.embargo.sonogram.dsp.Operator;
+import se.embargo.sonogram.dsp.SequencedFilter;
 import se.embargo.sonogram.dsp.Signals;
 import android.app.Activity;
-import android.graphics.Rect;
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioRecord;
@@ -34,21 +33,25 @@ public class Sonar implements ISonar {
 	public static final int SAMPLES_LENGTH = SAMPLERATE * PULSEINTERVAL / 1000;
 	
 	/**
-	 * Sonar pulse time series.
+	 * Sonar pulse time series, interned so derived data is shared with recordings of the same pulse.
 	 */
-	private static final float[] OPERATOR = Signals.createLinearChirp(
+	private static final float[] OPERATOR = Operator.intern(Signals.createLinearChirp(
 		SAMPLERATE, PULSEDURATION,
-			(float)SAMPLERATE / 16f, (float)SAMPLERATE / 2f - (float)SAMPLERATE / 16f);
+			(float)SAMPLERATE / 16f, (float)SAMPLERATE / 2f - (float)SAMPLERATE / 16f));
 	
 	private ISonarController _controller;
 	private final SonarWorker _inputworker = new AudioInputWorker(), _outputworker = new AudioOutputWorker();
-	private final Rect _resolution = new Rect(0, 0, SAMPLES_LENGTH * 2, SAMPLES_LENGTH);
+	private final Bounds _resolution = new Bounds(0, 0, SAMPLES_LENGTH * 2, SAMPLES_LENGTH);
+	
+	private static final int QUEUESIZE = 4;
 	
-	private static ExecutorService _threadpool = new ThreadPoolExecutor(
-		Parallel.getNumberOfCores(), Parallel.getNumberOfCores(), 0, TimeUnit.MILLISECONDS, 
-		new ArrayBlockingQueue<Runnable>(4, false), new ThreadPoolExecutor.DiscardOldestPolicy());
+	/**
+	 * Live frames are only useful while fresh so the oldest queued frame is dropped on overload
+	 */
+	private static final FrameScheduler _scheduler = new FrameScheduler(
+		TAG, Parallel.getNumberOfCores(), QUEUESIZE, FrameScheduler.Policy.LatestWins);
 	
-	private final Queue<FilterTask> _filterpool = new ArrayBlockingQueue<FilterTask>(Parallel.getNumberOfCores(), false);
+	private final Queue<FilterTask> _filterpool = new ArrayBlockingQueue<FilterTask>(Parallel.getNumberOfCores() + QUEUESIZE + 1, false);
 	
 	/**
 	 * Sonar pulse time series.
@@ -84,7 +87,7 @@ public class Sonar implements ISonar {
 	public synchronized void init(ISonarController controller, ISignalFilter filter) {
 		_controller = controller;
 		_controller.setSonarResolution(_resolution);
-		_filter = new CompositeFilter(filter, new AudioSync());
+		_filter = new CompositeFilter(filter, new SequencedFilter(new AudioSync(), _scheduler.getThreads() + _scheduler.getCapacity()));
 	}
 
 	@Override
@@ -97,6 +100,11 @@ public class Sonar implements ISonar {
 		return _filter;
 	}
 	
+	@Override
+	public FrameScheduler getScheduler() {
+		return _scheduler;
+	}
+	
 	@Override
 	public synchronized void start() {
 		_inputworker.start();
@@ -109,30 +117,56 @@ public class Sonar implements ISonar {
 		_outputworker.stop();
 	}
 	
-	private class FilterTask implements Runnable {
+	private class FilterTask implements FrameScheduler.ITask {
 		public final ISignalFilter.Item item;
 		private ISonarController _controller;
 		private ISignalFilter _filter;
+		private CaptureRing _ring;
 		
 		public FilterTask(int samplecount) {
 			item = new ISignalFilter.Item(SAMPLERATE, samplecount);
 		}
 		
-		public void init(short[] samples) {
+		public void init(CaptureRing ring, int offset, long timestamp) {
 			synchronized (Sonar.this) {
 				this._controller = Sonar.this._controller;
 				this._filter = Sonar.this._filter;
 			}
 			
-			item.init(_operator, samples, _controller.getSonarWindow(), _controller.getSonarCanvas(), _resolution);
+			_ring = ring;
+			item.init(_operator, ring.getBuffer(), offset, _controller.getSonarWindow(), _controller.getSonarCanvas(), _resolution);
+			item.timestamp = timestamp;
+			item.baseline = _baseline.getValue();
 		}
 
 		@Override
 		public void run() {
-			// Apply the filters
-			_filter.accept(item);
-
-			// Reuse this task
+			try {
+				// Apply the filters
+				item.deinterleave();
+				_filter.accept(item);
+			}
+			finally {
+				recycle();
+			}
+		}
+		
+		@Override
+		public void dispatch(long sequence) {
+			item.sequence = sequence;
+		}
+		
+		@Override
+		public void discard() {
+			recycle();
+		}
+		
+		/**
+		 * Releases the captured samples and returns this task to the pool
+		 */
+		private void recycle() {
+			_ring.release(item.offset);
+			_ring = null;
 			_filterpool.offer(this);
 		}
 	}
@@ -141,33 +175,54 @@ public class Sonar implements ISonar {
 		@Override
 		public void run() {
 			int resolution = SAMPLES_LENGTH;
-			int samplecount = (resolution + _operator.length) * 2;
 			int chunksize = resolution * 2;
 			int channel = AudioFormat.CHANNEL_IN_STEREO;
-			short[] samples;
+			
+			// Frames stay in the ring while queued or being processed
+			CaptureRing ring = new CaptureRing(_operator.length * 2, chunksize, Parallel.getNumberOfCores() + QUEUESIZE + 2);
+			int samplecount = ring.getFrameLength();
+			short[] buffer = ring.getBuffer(), scratch = new short[chunksize];
 			
 			AudioRecord record = new AudioRecord(
 				MediaRecorder.AudioSource.CAMCORDER, SAMPLERATE, channel, AudioFormat.ENCODING_PCM_16BIT, 
 				Math.max(AudioTrack.getMinBufferSize(SAMPLERATE, channel, AudioFormat.ENCODING_PCM_16BIT), samplecount));
 			
 			try {
-				int position = samplecount - chunksize;
+				int position = 0;
+				boolean skip = false;
 				record.startRecording();
-				samples = new short[samplecount];
 
 				while (!_stop) {
-					// Read complete data chunk into last chunksize of buffer
-					int count = record.read(samples, position, samplecount - position);
+					// Read directly into the ring, or drain into scratch if the block is still in use
+					if (position == 0) {
+						skip = !ring.isWritable();
+					}
+					
+					short[] target = skip ? scratch : buffer;
+					int base = skip ? 0 : ring.getWriteOffset();
+					int count = record.read(target, base + position, chunksize - position);
 					if (count < 0 || count == AudioRecord.ERROR_INVALID_OPERATION || count == AudioRecord.ERROR_BAD_VALUE) {
 						Log.e(TAG, "Audio reader problem: " + count);
 						return;
 					}
 					
 					position += count;
-					if (position < samplecount) {
+					if (position < chunksize) {
 						Thread.sleep(PULSEINTERVAL / 10);
 						continue;
 					}
+					
+					long timestamp = System.nanoTime();
+					position = 0;
+					if (skip) {
+						ring.skip();
+						continue;
+					}
+					
+					int offset = ring.publish();
+					if (offset < 0) {
+						continue;
+					}
 
 					// Allocate a new filter task
 					FilterTask task = _filterpool.poll();
@@ -176,12 +231,8 @@ public class Sonar implements ISonar {
 					}
 				
 					// Perform the filter processing on the thread pool
-					task.init(samples);
-					_threadpool.submit(task);
-					
-					// Save last/newest section of previous buffer as the first part
-					System.arraycopy(samples, chunksize, samples, 0, samplecount - chunksize);
-					position = samplecount - chunksize;
+					task.init(ring, offset, timestamp);
+					_scheduler.submit(task);
 				}
 			}
 			catch (InterruptedException e) {}
@@ -1,20 +1,21 @@
 package se.embargo.sonogram.io;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
-import java.io.EOFException;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ShortBuffer;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.zip.InflaterInputStream;
+import java.util.concurrent.BlockingQueue;
 
 import se.embargo.core.concurrent.Parallel;
+import se.embargo.sonogram.dsp.Bounds;
 import se.embargo.sonogram.dsp.ISignalFilter;
-import android.graphics.Rect;
+import se.embargo.sonogram.dsp.Operator;
+import se.embargo.sonogram.stream.IRecordingReader;
+import se.embargo.sonogram.stream.IndexedRecordingReader;
+import se.embargo.sonogram.stream.OutputCache;
+import se.embargo.sonogram.stream.StreamFormat;
+import se.embargo.sonogram.stream.StreamHeader;
 import android.util.Log;
 
 public class StreamReader implements ISonar {
@@ -23,19 +24,62 @@ public class StreamReader implements ISonar {
 	private final String _path;
 	private ISonarController _controller;
 	private ISignalFilter _filter;
-	private Rect _resolution;
-	private final SonarWorker _inputworker = new AudioInputWorker();
+	private Bounds _resolution;
+	private final SonarWorker _decodeworker = new DecodeWorker();
+	private final SonarWorker _playbackworker = new PlaybackWorker();
 	
-	private DataInputStream _dis;
+	private IRecordingReader _recording;
 	private int _samplecount;
 	private float _samplerate;
 	private float[] _operator;
 	
-	private static ExecutorService _threadpool = new ThreadPoolExecutor(
-		Parallel.getNumberOfCores(), Parallel.getNumberOfCores(), 0, TimeUnit.MILLISECONDS, 
-		new ArrayBlockingQueue<Runnable>(4, false), new ThreadPoolExecutor.DiscardOldestPolicy());
+	/**
+	 * Identity of the recording, lets filters cache their output between replays
+	 */
+	private String _source;
+	/**
+	 * Created once so that controls can hold on to it, its interval is set when the recording is opened
+	 */
+	private final PlaybackClock _clock = new PlaybackClock(0);
 	
-	private final Queue<FilterTask> _filterpool = new ArrayBlockingQueue<FilterTask>(Parallel.getNumberOfCores(), false);
+	/**
+	 * Frame to continue playback from, or -1 to keep playing
+	 */
+	private int _seek = -1;
+	
+	/**
+	 * Range of frames being played, playback loops back to the first frame
+	 */
+	private int _first = 0, _last = Integer.MAX_VALUE;
+	
+	/**
+	 * Incremented on seeks so that frames decoded ahead of them are discarded
+	 */
+	private int _generation = 0;
+	
+	/**
+	 * Index of the next frame to play
+	 */
+	private volatile int _position = 0;
+	
+	/**
+	 * Playback blocks on the filter pipeline rather than following the clock
+	 */
+	private boolean _unpaced = false;
+	
+	private static final int QUEUESIZE = 4;
+	
+	/**
+	 * Number of frames decoded ahead of playback
+	 */
+	private static final int READAHEAD = 4;
+	private final BlockingQueue<Frame> _freeframes = new ArrayBlockingQueue<Frame>(READAHEAD);
+	private final BlockingQueue<Frame> _decodedframes = new ArrayBlockingQueue<Frame>(READAHEAD);
+	
+	private static final FrameScheduler _scheduler = new FrameScheduler(
+		TAG, Parallel.getNumberOfCores(), QUEUESIZE, FrameScheduler.Policy.LatestWins);
+	
+	private final Queue<FilterTask> _filterpool = new ArrayBlockingQueue<FilterTask>(Parallel.getNumberOfCores() + QUEUESIZE + 1, false);
 	
 	public StreamReader(String path) {
 		_path = path;
@@ -68,49 +112,133 @@ public class StreamReader implements ISonar {
 	public synchronized ISignalFilter getFilter() {
 		return _filter;
 	}
+	
+	@Override
+	public FrameScheduler getScheduler() {
+		return _scheduler;
+	}
 
 	@Override
 	public synchronized void start() {
-		_inputworker.start();
+		// Frames held by stopped workers are lost, so start over with a full set
+		_freeframes.clear();
+		_decodedframes.clear();
+		for (int i = 0; i < READAHEAD; i++) {
+			_freeframes.offer(new Frame());
+		}
+		
+		_scheduler.setPolicy(_unpaced ? FrameScheduler.Policy.Block : FrameScheduler.Policy.LatestWins);
+		_decodeworker.start();
+		_playbackworker.start();
 	}
 
 	@Override
 	public synchronized void stop() {
-		_inputworker.stop();
+		_playbackworker.stop();
+		_decodeworker.stop();
 	}
 	
-	private void readHeader() throws IOException {
-		if (_dis != null) {
-			_dis.close();
+	/**
+	 * @return	Clock pacing the playback, used to change speed, pause and step
+	 */
+	public PlaybackClock getClock() {
+		return _clock;
+	}
+	
+	/**
+	 * @param unpaced	True to play frames as fast as they can be filtered, without dropping any
+	 */
+	public synchronized void setUnpaced(boolean unpaced) {
+		_unpaced = unpaced;
+		_clock.setUnpaced(unpaced);
+		_scheduler.setPolicy(unpaced ? FrameScheduler.Policy.Block : FrameScheduler.Policy.LatestWins);
+	}
+	
+	public synchronized boolean isUnpaced() {
+		return _unpaced;
+	}
+	
+	/**
+	 * @return	Number of frames in the recording, or -1 if the recording doesn't have an index
+	 */
+	public synchronized int getFrameCount() {
+		return _recording != null ? _recording.getFrameCount() : -1;
+	}
+	
+	/**
+	 * @return	Index of the next frame to be played
+	 */
+	public int getPosition() {
+		return _position;
+	}
+	
+	/**
+	 * Continues playback from the given frame, frames already queued are discarded. Seeking
+	 * takes constant time in indexed recordings and is used for scrubbing.
+	 */
+	public void seek(int frame) {
+		synchronized (this) {
+			_seek = Math.max(frame, 0);
+			_generation++;
 		}
 		
-		_dis = new DataInputStream(new InflaterInputStream(new BufferedInputStream(new FileInputStream(_path))));
-		int magic = _dis.readInt();
-		if (magic != StreamWriter.MAGIC) {
-			throw new IOException("Invalid magic number: " + magic);
+		_scheduler.clear();
+	}
+	
+	/**
+	 * Plays the frames in [first, last) in a loop
+	 */
+	public synchronized void setRange(int first, int last) {
+		_first = Math.max(first, 0);
+		_last = Math.max(last, _first + 1);
+		_seek = _first;
+		_generation++;
+	}
+	
+	private void readHeader() throws IOException {
+		if (_recording != null) {
+			_recording.close();
 		}
 		
-		int version = _dis.readInt();
-		if (version != StreamWriter.VERSION) {
-			throw new IOException("Unsupported version number: " + version);
-		}
+		File file = new File(_path);
+		_recording = StreamFormat.open(file);
+		_source = OutputCache.identify(file);
+		StreamHeader header = _recording.getHeader();
+		_samplerate = header.samplerate;
+		_samplecount = header.samplecount;
+		_resolution = new Bounds(0, 0, header.width, header.height);
 		
-		_samplerate = _dis.readFloat();
-		/*float baseline = */_dis.readFloat();
-		_samplecount = _dis.readInt();
-		int width = _dis.readInt();
-		int heigth = _dis.readInt();
-		_resolution = new Rect(0, 0, width, heigth);
-		
-		// Read the operator used for this item
-		int operatorlength = _dis.readInt();
-		_operator = new float[operatorlength];
-		for (int i = 0; i < _operator.length; i++) {
-			_operator[i] = _dis.readFloat();
-		}
+		// Reuse the canonical operator so derived data survives looping the file
+		_operator = Operator.intern(header.operator);
+		
+		// Frames are spaced by the samples not covered by the operator
+		_clock.setInterval((long)((_samplecount / 2 - _operator.length) * 1e9 / _samplerate));
+	}
+	
+	/**
+	 * Frame decoded ahead of playback
+	 */
+	private static class Frame {
+		public short[] samples;
+		
+		/**
+		 * View of a mapped frame, set instead of samples
+		 */
+		public ShortBuffer buffer;
+		
+		/**
+		 * Index of the frame after this one
+		 */
+		public int position;
+		public int generation;
+		
+		/**
+		 * Distance between the microphones when the frame was recorded
+		 */
+		public float baseline;
 	}
 	
-	private class FilterTask implements Runnable {
+	private class FilterTask implements FrameScheduler.ITask {
 		public final ISignalFilter.Item item;
 		private ISonarController _controller;
 		private ISignalFilter _filter;
@@ -119,62 +247,117 @@ public class StreamReader implements ISonar {
 			item = new ISignalFilter.Item(samplerate, samplecount);
 		}
 		
-		public void init(float[] operator, short[] samples, Rect resolution) {
+		public void init(float[] operator, short[] samples, Bounds resolution, int frame, long timestamp) {
+			synchronized (StreamReader.this) {
+				this._controller = StreamReader.this._controller;
+				this._filter = StreamReader.this._filter;
+			}
+			
+			item.init(operator, samples, _controller.getSonarWindow(), _controller.getSonarCanvas(), resolution);
+			item.source = _source;
+			item.frame = frame;
+			item.timestamp = timestamp;
+		}
+		
+		/**
+		 * Initializes the task with a view of a mapped frame rather than a copy
+		 */
+		public void init(float[] operator, ShortBuffer samples, Bounds resolution, int frame, long timestamp) {
 			synchronized (StreamReader.this) {
 				this._controller = StreamReader.this._controller;
 				this._filter = StreamReader.this._filter;
 			}
 			
 			item.init(operator, samples, _controller.getSonarWindow(), _controller.getSonarCanvas(), resolution);
+			item.source = _source;
+			item.frame = frame;
+			item.timestamp = timestamp;
 		}
 
 		@Override
 		public void run() {
 			// Apply the filters
+			item.deinterleave();
 			_filter.accept(item);
 
 			// Reuse this task
 			_filterpool.offer(this);
 		}
+		
+		@Override
+		public void dispatch(long sequence) {
+			item.sequence = sequence;
+		}
+		
+		@Override
+		public void discard() {
+			_filterpool.offer(this);
+		}
 	}
 	
-	private class AudioInputWorker extends SonarWorker {
+	/**
+	 * Reads and decodes frames ahead of playback so decoding doesn't disturb the pacing
+	 */
+	private class DecodeWorker extends SonarWorker {
 		@Override
 		public void run() {
-			short[] samples = new short[_samplecount];
-			_controller.setSonarResolution(_resolution);
+			// Uncompressed recordings are filtered straight from the mapped file
+			IndexedRecordingReader mapped = null;
+			if (_recording instanceof IndexedRecordingReader && ((IndexedRecordingReader)_recording).isMapped()) {
+				mapped = (IndexedRecordingReader)_recording;
+			}
 			
 			try {
 				while (!_stop) {
-					try {
-						long ts1 = System.currentTimeMillis();
-						
-						// Read chunk into local buffer
-						for (int i = 0; i < samples.length; i++) {
-							samples[i] = _dis.readShort();
+					Frame frame = _freeframes.take();
+					
+					int seek, last, generation;
+					synchronized (StreamReader.this) {
+						seek = _seek;
+						last = _last;
+						generation = _generation;
+						_seek = -1;
+					}
+					
+					if (seek >= 0) {
+						_recording.seek(seek);
+					}
+					
+					// Loop back to the start of the range at the end
+					boolean available = _recording.getPosition() < last;
+					if (available) {
+						if (mapped != null) {
+							available = (frame.buffer = mapped.readBuffer()) != null;
 						}
-		
-						// Allocate a new filter task
-						FilterTask task = _filterpool.poll();
-						if (task == null) {
-							task = new FilterTask(_samplerate, _samplecount);
+						else {
+							if (frame.samples == null) {
+								frame.samples = new short[_samplecount];
+							}
+							
+							available = _recording.read(frame.samples, 0);
 						}
+					}
 					
-						// Perform the filter processing on the thread pool
-						task.init(_operator, samples, _resolution);
-						_threadpool.submit(task);
-						
-						// Sleep for a while
-						long ts2 = System.currentTimeMillis();
-						long remaining = (long)(1000.0 / _samplerate) * _samplecount - (ts2 - ts1);
+					if (!available) {
+						_freeframes.put(frame);
+						synchronized (StreamReader.this) {
+							if (_seek < 0) {
+								_seek = _first;
+							}
+						}
 						
-						if (remaining > 0) {
-							Thread.sleep(remaining);
+						// Avoid spinning when the range is empty
+						if (seek >= 0) {
+							Thread.sleep(100);
 						}
+						
+						continue;
 					}
-					catch (EOFException e) {
-						readHeader();
-					}
+					
+					frame.position = _recording.getPosition();
+					frame.generation = generation;
+					frame.baseline = _recording.getBaseline();
+					_decodedframes.put(frame);
 				}
 			}
 			catch (IOException e) {
@@ -183,4 +366,63 @@ public class StreamReader implements ISonar {
 			catch (InterruptedException e) {}
 		}
 	}
+	
+	/**
+	 * Releases decoded frames to the filters as the playback clock ticks
+	 */
+	private class PlaybackWorker extends SonarWorker {
+		@Override
+		public void run() {
+			_controller.setSonarResolution(_resolution);
+			
+			try {
+				while (!_stop) {
+					Frame frame = _decodedframes.take();
+					
+					if (!isCurrent(frame)) {
+						_freeframes.put(frame);
+						continue;
+					}
+					
+					_clock.await();
+					
+					// Skip frames from before a seek that happened while waiting
+					if (!isCurrent(frame)) {
+						_freeframes.put(frame);
+						continue;
+					}
+					
+					_position = frame.position;
+	
+					// Allocate a new filter task
+					FilterTask task = _filterpool.poll();
+					if (task == null) {
+						task = new FilterTask(_samplerate, _samplecount);
+					}
+				
+					// Tasks copy the samples or keep their own view of a mapped frame, so the frame can be reused right away
+					if (frame.buffer != null) {
+						task.init(_operator, frame.buffer, _resolution, frame.position - 1, System.nanoTime());
+						frame.buffer = null;
+					}
+					else {
+						task.init(_operator, frame.samples, _resolution, frame.position - 1, System.nanoTime());
+					}
+					
+					task.item.baseline = frame.baseline;
+					_freeframes.put(frame);
+					
+					// Perform the filter processing on the thread pool
+					_scheduler.submit(task);
+				}
+			}
+			catch (InterruptedException e) {}
+		}
+		
+		private boolean isCurrent(Frame frame) {
+			synchronized (StreamReader.this) {
+				return frame.generation == _generation;
+			}
+		}
+	}
 }
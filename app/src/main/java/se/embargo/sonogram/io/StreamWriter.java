@@ -1,45 +1,59 @@
 package se.embargo.sonogram.io;
 
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.DeflaterOutputStream;
 
-import se.embargo.core.databinding.observable.IObservableValue;
 import se.embargo.sonogram.dsp.ISignalFilter;
+import se.embargo.sonogram.stream.RecordingWriter;
+import se.embargo.sonogram.stream.StreamFormat;
+import se.embargo.sonogram.stream.StreamHeader;
 import android.util.Log;
 
 public class StreamWriter implements ISignalFilter {
 	private static final String TAG = "StreamWriter";
-	public static final int MAGIC = 0xa24c7709;
-	public static final int VERSION = 3; 
 	
 	public interface IStreamListener {
 		abstract void onClosed();
 	}
 	
-	private DataOutputStream _os;
-	private final IObservableValue<Float> _baseline; 
+	private RecordingWriter _os;
 	private final int _itemlimit;
 	private int _itemcount = 0;
 	private boolean _headerWritten = false;
+	
+	/**
+	 * Copy of the samples of items which are views of a mapped recording
+	 */
+	private short[] _samples;
 	private IStreamListener _listener = null;
 	
-	public StreamWriter(OutputStream os, IObservableValue<Float> baseline, int itemlimit) {
-		_os = new DataOutputStream(new DeflaterOutputStream(new BufferedOutputStream(os)));
-		_baseline = baseline;
+	/**
+	 * @param compression	Encoding of the frames, e.g. StreamFormat.COMPRESSION_DEFLATE
+	 */
+	public StreamWriter(OutputStream os, int itemlimit, int compression) {
+		_os = new RecordingWriter(os, compression);
 		_itemlimit = itemlimit;
 	}
 	
-	public StreamWriter(OutputStream os, IObservableValue<Float> baseline) {
-		this(os, baseline, Integer.MAX_VALUE);
+	public StreamWriter(OutputStream os, int itemlimit) {
+		this(os, itemlimit, StreamFormat.COMPRESSION_PREDICTIVE);
+	}
+	
+	public StreamWriter(OutputStream os) {
+		this(os, Integer.MAX_VALUE);
 	}
 	
 	public void setListener(IStreamListener listener) {
 		_listener = listener;
 	}
 	
+	/**
+	 * @return	True if the recording has been closed, e.g. when the item limit was reached
+	 */
+	public synchronized boolean isClosed() {
+		return _os == null;
+	}
+	
 	public synchronized void close() {
 		if (_os != null) {
 			try {
@@ -60,36 +74,60 @@ public class StreamWriter implements ISignalFilter {
 	@Override
 	public synchronized void accept(Item item) {
 		if (_os != null) {
-			try {
-				if (!_headerWritten) {
-					_headerWritten = true;
-					_os.writeInt(MAGIC);
-					_os.writeInt(VERSION);
-					_os.writeFloat(item.samplerate);
-					_os.writeFloat(_baseline.getValue());
-					_os.writeInt(item.samples.length);
-					_os.writeInt(item.resolution.width());
-					_os.writeInt(item.resolution.height());
-					
-					// Write the operator used for this item
-					_os.writeInt(item.operator.length);
-					for (int i = 0; i < item.operator.length; i++) {
-						_os.writeFloat(item.operator[i]);
-					}
-				}
-				
-				for (int i = 0; i < item.samples.length; i++) {
-					_os.writeShort(item.samples[i]);
+			StreamHeader header = _headerWritten ? null : createHeader(item);
+			
+			if (item.buffer != null) {
+				if (_samples == null || _samples.length != item.samplecount) {
+					_samples = new short[item.samplecount];
 				}
 				
-				if (++_itemcount >= _itemlimit) {
-					close();
-				}
+				item.copySamples(_samples, 0);
+				write(header, _samples, 0, item.timestamp, item.baseline);
 			}
-			catch (IOException e) {
-				Log.e(TAG, e.getMessage(), e);
+			else {
+				write(header, item.samples, item.offset, item.timestamp, item.baseline);
+			}
+		}
+	}
+	
+	/**
+	 * @return	Header describing the frames of the item
+	 */
+	public StreamHeader createHeader(Item item) {
+		return new StreamHeader(
+			item.samplerate, item.baseline, item.samplecount, 
+			item.resolution.width(), item.resolution.height(), item.operator);
+	}
+	
+	/**
+	 * Writes a frame of interleaved samples, e.g. from a copy of the samples of an item
+	 * @param header	Header written before the first frame, may be null after that
+	 * @param baseline	Distance between the microphones when the frame was captured
+	 * @return			True if the frame was written, false if the recording has been closed
+	 */
+	public synchronized boolean write(StreamHeader header, short[] samples, int offset, long timestamp, float baseline) {
+		if (_os == null) {
+			return false;
+		}
+		
+		try {
+			if (!_headerWritten) {
+				_headerWritten = true;
+				_os.writeHeader(header);
+			}
+			
+			_os.writeFrame(samples, offset, timestamp, baseline);
+			
+			if (++_itemcount >= _itemlimit) {
 				close();
 			}
+			
+			return true;
+		}
+		catch (IOException e) {
+			Log.e(TAG, e.getMessage(), e);
+			close();
+			return false;
 		}
 	}
 }
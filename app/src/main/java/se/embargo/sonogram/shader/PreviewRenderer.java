@@ -1,5 +1,7 @@
 package se.embargo.sonogram.shader;
 
+import java.util.Arrays;
+
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -11,28 +13,56 @@ import android.content.Context;
 import android.graphics.Rect;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
+import android.opengl.Matrix;
 import android.util.Log;
 
 public class PreviewRenderer implements GLSurfaceView.Renderer {
 	private static final String TAG = "PreviewRenderer";
 	
+	/**
+	 * Number of range bins and frames shown by the waterfall
+	 */
+	private static final int WATERFALL_WIDTH = 512, WATERFALL_HISTORY = 256;
+	
     private Context _context;
     private ShaderProgram _program;
     
     private IVisualizationShader _shader;
     private PreviewShader _preview;
-    private SonogramSurface.Visualization _visualization = Visualization.Sonogram, _prevVisualization;
+    private volatile SonogramSurface.Visualization _visualization = Visualization.Sonogram;
+    private SonogramSurface.Visualization _prevVisualization;
+    
+    /**
+     * Magnification of the range, and the texture transform which applies it
+     */
+    private volatile float _zoom = 1.0f;
+    private final float[] _textureMatrix = new float[16];
     
-    private float[] _operator, _samples0, _samples1;
+    /**
+     * Hands the filter output over to the GL thread without either side waiting for the other
+     */
+    private final TripleBuffer<Frame> _frames = new TripleBuffer<Frame>(new Frame(), new Frame(), new Frame());
+    
+    /**
+     * Range profiles of the waterfall, kept while other visualizations are shown
+     */
+    private final ProfileRing _waterfall = new ProfileRing(WATERFALL_WIDTH, WATERFALL_HISTORY);
     
     public PreviewRenderer(Context context) {
     	_context = context;
     }
 
-	public synchronized void setVisualization(SonogramSurface.Visualization visualization) {
+	public void setVisualization(SonogramSurface.Visualization visualization) {
 		_visualization = visualization;
 	}
 	
+	/**
+	 * @param zoom	Magnification of the range, where the closest 1/zoom of the range fills the view
+	 */
+	public void setZoom(float zoom) {
+		_zoom = zoom;
+	}
+	
 	private void createShaderProgram() {
 		switch (_visualization) {
 			case Sonogram:
@@ -49,6 +79,11 @@ public class PreviewRenderer implements GLSurfaceView.Renderer {
 				_program = new ShaderProgram(_context, PreviewShader.SHADER_SOURCE_ID, R.raw.histogram_shader);
 				_shader = new TriangulateShader(_program);
 				break;
+				
+			case Waterfall:
+				_program = new ShaderProgram(_context, PreviewShader.SHADER_SOURCE_ID, R.raw.waterfall_shader);
+				_shader = new WaterfallShader(_program, _waterfall);
+				break;
 		}
 		
 		_prevVisualization = _visualization;
@@ -88,29 +123,90 @@ public class PreviewRenderer implements GLSurfaceView.Renderer {
     }
 
     @Override
-    public synchronized void onDrawFrame(GL10 glUnused) {
+    public void onDrawFrame(GL10 glUnused) {
     	if (_visualization != _prevVisualization) {
     		createShaderProgram();
     	}
     	
-    	if (_samples0 != null && _samples1 != null) {
+    	// Redraws the previous frame when nothing new was received, e.g. after a resize
+    	Frame frame = _frames.swap();
+    	if (frame.samples0 != null) {
     		_program.draw();
-    		_shader.draw(_operator, _samples0, _samples1);
+    		_shader.draw(frame.operator, frame.samples0, frame.samples1);
+    		_preview.setTextureMatrix(getTextureMatrix());
     		_preview.draw();
     	}
     }
+    
+    /**
+     * @return	Texture transform which magnifies the closest part of the range, the 
+     * 			texture coordinates are swapped after the transform so x is the range
+     * 			of the histogram and waterfall
+     */
+    private float[] getTextureMatrix() {
+    	final float zoom = _zoom;
+    	Matrix.setIdentityM(_textureMatrix, 0);
+    	
+    	switch (_prevVisualization) {
+    		case Sonogram:
+    		case Triangulate:
+    			// Magnify the plane around the microphones
+    			Matrix.translateM(_textureMatrix, 0, 0.5f, 0.11f, 0.0f);
+    			Matrix.scaleM(_textureMatrix, 0, 1.0f / zoom, 1.0f / zoom, 1.0f);
+    			Matrix.translateM(_textureMatrix, 0, -0.5f, -0.11f, 0.0f);
+    			break;
+    			
+    		case Histogram:
+    		case Waterfall:
+    			Matrix.scaleM(_textureMatrix, 0, 1.0f / zoom, 1.0f, 1.0f);
+    			break;
+    	}
+    	
+    	return _textureMatrix;
+    }
 
-	public synchronized void receive(Item item) {
-		if (_samples0 == null || _samples0.length != item.output.length / 2) {
-			_samples0 = new float[item.output.length / 2];
-			_samples1 = new float[item.output.length / 2];
+	/**
+	 * Called from the filter workers, frames arriving faster than they're drawn replace each other
+	 * @return	True if the surface needs to be rendered to show the frame, false if
+	 * 			the frame was dropped or a render is already pending
+	 */
+	public boolean receive(Item item) {
+		Frame frame = _frames.acquire();
+		if (frame == null) {
+			// Another worker is handing over a frame right now
+			return false;
+		}
+		
+		if (frame.samples0 == null || frame.samples0.length != item.output.length / 2) {
+			frame.samples0 = new float[item.output.length / 2];
+			frame.samples1 = new float[item.output.length / 2];
 		}
 		
-		for (int i = 0, j = 0; i < _samples0.length; i++, j += 2) {
-			_samples0[i] = item.output[j];
-			_samples1[i] = item.output[j + 1];
+		final float[] samples0 = frame.samples0, samples1 = frame.samples1;
+		
+		// Values outside the range gate weren't computed
+		final int first = item.first / 2, last = (item.last + 1) / 2;
+		Arrays.fill(samples0, 0, first, 0.0f);
+		Arrays.fill(samples1, 0, first, 0.0f);
+		
+		for (int i = first, j = first * 2; i < last; i++, j += 2) {
+			samples0[i] = item.output[j];
+			samples1[i] = item.output[j + 1];
 		}
 		
-		_operator = item.operator;
+		Arrays.fill(samples0, last, samples0.length, 0.0f);
+		Arrays.fill(samples1, last, samples1.length, 0.0f);
+		
+		// Every frame adds a row, even those that are never drawn
+		if (_visualization == Visualization.Waterfall) {
+			_waterfall.write(samples0, samples1, Math.max(samples0.length - item.operator.length, 0));
+		}
+		
+		frame.operator = item.operator;
+		return _frames.publish();
+	}
+	
+	private static class Frame {
+		public float[] operator, samples0, samples1;
 	}
 }
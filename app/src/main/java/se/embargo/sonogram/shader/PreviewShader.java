@@ -81,6 +81,13 @@ public class PreviewShader implements IRenderStage {
         Matrix.multiplyMM(mMVPMatrix, 0, mProjMatrix, 0, mVMatrix, 0);
     }
     
+    /**
+     * @param matrix	Transform of the texture coordinates, e.g. to magnify part of the visualization
+     */
+    public void setTextureMatrix(float[] matrix) {
+    	System.arraycopy(matrix, 0, mSTMatrix, 0, mSTMatrix.length);
+    }
+    
     @Override
     public void draw() {
     	// Transfer the screen ratio projection
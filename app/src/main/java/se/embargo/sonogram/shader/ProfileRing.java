@@ -0,0 +1,102 @@
+package se.embargo.sonogram.shader;
+
+import java.nio.ByteBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * Fixed size history of range profiles for the waterfall, where each frame adds one
+ * row of 8-bit values and overwrites the oldest one. Rows are written by the filter
+ * workers and uploaded to the texture on the GL thread, where only the rows added
+ * since the last upload are transferred.
+ */
+public class ProfileRing {
+	private final int _width, _capacity;
+	private final byte[] _rows;
+	private final ByteBuffer _buffer;
+
+	/**
+	 * Number of rows written since the ring was created
+	 */
+	private volatile long _written = 0;
+
+	/**
+	 * @param width		Number of range bins in a row
+	 * @param capacity	Number of rows kept
+	 */
+	public ProfileRing(int width, int capacity) {
+		_width = width;
+		_capacity = capacity;
+		_rows = new byte[width * capacity];
+		_buffer = ByteBuffer.wrap(_rows);
+	}
+
+	public int getWidth() {
+		return _width;
+	}
+
+	public int getCapacity() {
+		return _capacity;
+	}
+
+	/**
+	 * @return	Number of rows written since the ring was created
+	 */
+	public long getWritten() {
+		return _written;
+	}
+
+	/**
+	 * Adds the mean of both channels as a row, where each bin holds the maximum of its
+	 * part of the range with the same log scale as the shaders. Called by one worker at a time.
+	 * @param length	Number of samples to spread over the row
+	 */
+	public void write(float[] samples0, float[] samples1, int length) {
+		final long written = _written;
+		final int offset = (int)(written % _capacity) * _width;
+
+		for (int bin = 0; bin < _width; bin++) {
+			final int first = (int)((long)bin * length / _width);
+			final int last = Math.min(Math.max((int)((long)(bin + 1) * length / _width), first + 1), length);
+
+			float max = 0.0f;
+			for (int i = first; i < last; i++) {
+				max = Math.max(max, (Math.abs(samples0[i]) + Math.abs(samples1[i])) * 0.5f);
+			}
+
+			double value = log2(log2(max + 1.0) + 1.0);
+			_rows[offset + bin] = (byte)Math.round(Math.min(value, 1.0) * 255.0);
+		}
+
+		_written = written + 1;
+	}
+
+	/**
+	 * Uploads the rows written since the given count to the bound GL_LUMINANCE texture, which
+	 * has one texture row per ring row. Rows overwritten since then are skipped.
+	 * @param uploaded	Value of getWritten() at the last upload
+	 * @return			Value of getWritten() for the next upload
+	 */
+	public long upload(long uploaded) {
+		final long written = _written;
+		long first = Math.max(uploaded, written - _capacity);
+
+		// At most two blocks when the rows wrap around the end of the ring
+		while (first < written) {
+			final int row = (int)(first % _capacity);
+			final int count = (int)Math.min(written - first, _capacity - row);
+
+			_buffer.position(row * _width);
+			GLES20.glTexSubImage2D(
+				GLES20.GL_TEXTURE_2D, 0, 0, row, _width, count,
+				GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, _buffer);
+			first += count;
+		}
+
+		return written;
+	}
+
+	private static double log2(double value) {
+		return Math.log(value) / Math.log(2.0);
+	}
+}
@@ -1,17 +1,34 @@
 package se.embargo.sonogram.shader;
 
+import se.embargo.sonogram.dsp.Bounds;
 import se.embargo.sonogram.dsp.ISignalFilter;
 import se.embargo.sonogram.io.ISonarController;
 import android.content.Context;
-import android.graphics.Rect;
 import android.opengl.GLSurfaceView;
 import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 
+/**
+ * Shows the filtered frames, pinching zooms into close range by magnifying the
+ * visualization and gating the filters to the part of the range that's shown.
+ */
 public class SonogramSurface extends GLSurfaceView implements ISonarController, ISignalFilter {
+	/**
+	 * Largest magnification, where a 1/MAX_ZOOM of the range is shown
+	 */
+	private static final float MAX_ZOOM = 16.0f;
+	
 	private final PreviewRenderer _renderer;
-	private Rect _resolution;
+	private final ScaleGestureDetector _scaleDetector;
+	private volatile Bounds _resolution, _window;
+	
+	/**
+	 * Magnification of the range, set from the UI thread as well as the sonar thread
+	 */
+	private volatile float _zoom = 1.0f;
 
-	public enum Visualization { Sonogram, Triangulate, Histogram };
+	public enum Visualization { Sonogram, Triangulate, Histogram, Waterfall };
 	
 	public SonogramSurface(Context context, AttributeSet attrs) {
 		super(context, attrs);
@@ -19,6 +36,11 @@ public class SonogramSurface extends GLSurfaceView implements ISonarController,
 
 		_renderer = new PreviewRenderer(context);
 		setRenderer(_renderer);
+		
+		// Only draw when the filters have produced a new frame
+		setRenderMode(RENDERMODE_WHEN_DIRTY);
+		
+		_scaleDetector = new ScaleGestureDetector(context, new ScaleListener());
 	}
 
 	public SonogramSurface(Context context) {
@@ -27,25 +49,75 @@ public class SonogramSurface extends GLSurfaceView implements ISonarController,
 	
 	public void setVisualization(Visualization visualization) {
 		_renderer.setVisualization(visualization);
+		requestRender();
 	}
 
 	@Override
-	public void setSonarResolution(Rect resolution) {
+	public synchronized void setSonarResolution(Bounds resolution) {
 		_resolution = resolution;
+		setZoom(_zoom);
+	}
+
+	/**
+	 * Gates the filters to the horizontal extent of the window, e.g. when zooming into close range
+	 * @param window	Part of the sonar resolution to show, or null to show all of it
+	 */
+	public void setSonarWindow(Bounds window) {
+		_window = window;
 	}
 
+	/**
+	 * Magnifies the closest 1/zoom of the range to fill the view
+	 * @param zoom	Magnification in [1, MAX_ZOOM], where 1 shows the whole range
+	 */
+	public synchronized void setZoom(float zoom) {
+		_zoom = Math.max(1.0f, Math.min(zoom, MAX_ZOOM));
+		_renderer.setZoom(_zoom);
+		
+		Bounds resolution = _resolution;
+		if (resolution != null && _zoom > 1.0f) {
+			int width = (int)Math.ceil(resolution.width() / _zoom);
+			setSonarWindow(new Bounds(resolution.left, resolution.top, resolution.left + width, resolution.bottom));
+		}
+		else {
+			setSonarWindow(null);
+		}
+		
+		requestRender();
+	}
+	
 	@Override
-	public Rect getSonarWindow() {
-		return _resolution;
+	public boolean onTouchEvent(MotionEvent event) {
+		_scaleDetector.onTouchEvent(event);
+		return true;
+	}
+	
+	@Override
+	public Bounds getSonarWindow() {
+		Bounds window = _window;
+		return window != null ? window : _resolution;
 	}
 
 	@Override
-	public Rect getSonarCanvas() {
+	public Bounds getSonarCanvas() {
 		return _resolution;
 	}
 
 	@Override
 	public void accept(ISignalFilter.Item item) {
-		_renderer.receive(item);
+		if (_renderer.receive(item)) {
+			requestRender();
+		}
+	}
+	
+	private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+		@Override
+		public boolean onScale(ScaleGestureDetector detector) {
+			synchronized (SonogramSurface.this) {
+				setZoom(_zoom * detector.getScaleFactor());
+			}
+
+			return true;
+		}
 	}
 }
@@ -0,0 +1,81 @@
+package se.embargo.sonogram.shader;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free exchange of the latest frame from producers to a single consumer.
+ * The producer fills the back buffer and swaps it with the middle one, and the
+ * consumer swaps the middle buffer with its front one when a new frame has been
+ * published. Neither side ever waits for the other, and frames published before
+ * the consumer got to them are replaced by newer ones.
+ */
+public class TripleBuffer<T> {
+	/**
+	 * Set in the state when the middle buffer holds a frame the consumer hasn't seen
+	 */
+	private static final int DIRTY = 4;
+	private static final int INDEX = 3;
+
+	private final Object[] _buffers;
+
+	/**
+	 * Index of the middle buffer and the DIRTY flag
+	 */
+	private final AtomicInteger _state = new AtomicInteger(1);
+
+	/**
+	 * Only one producer at a time owns the back buffer
+	 */
+	private final AtomicBoolean _producing = new AtomicBoolean(false);
+	private int _back = 0, _front = 2;
+
+	public TripleBuffer(T buffer0, T buffer1, T buffer2) {
+		_buffers = new Object[] {buffer0, buffer1, buffer2};
+	}
+
+	/**
+	 * @return	Back buffer to fill, or null if another producer is filling it. Must be
+	 * 			followed by publish() when not null.
+	 */
+	@SuppressWarnings("unchecked")
+	public T acquire() {
+		if (!_producing.compareAndSet(false, true)) {
+			return null;
+		}
+
+		return (T)_buffers[_back];
+	}
+
+	/**
+	 * Makes the filled back buffer the latest frame
+	 * @return	True if the consumer had picked up the previous frame, false if this
+	 * 			frame replaced one the consumer is yet to see
+	 */
+	public boolean publish() {
+		int previous = _state.getAndSet(_back | DIRTY);
+		_back = previous & INDEX;
+		_producing.set(false);
+		return (previous & DIRTY) == 0;
+	}
+
+	/**
+	 * @return	True if a frame was published since the consumer last called swap()
+	 */
+	public boolean isDirty() {
+		return (_state.get() & DIRTY) != 0;
+	}
+
+	/**
+	 * Called by the consumer to pick up the latest frame
+	 * @return	Front buffer, holding the latest frame or the previous one if nothing was published
+	 */
+	@SuppressWarnings("unchecked")
+	public T swap() {
+		if (isDirty()) {
+			_front = _state.getAndSet(_front) & INDEX;
+		}
+
+		return (T)_buffers[_front];
+	}
+}
@@ -0,0 +1,73 @@
+package se.embargo.sonogram.shader;
+
+import java.nio.ByteBuffer;
+
+import se.embargo.core.graphic.ShaderProgram;
+import se.embargo.core.graphic.Shaders;
+import android.opengl.GLES20;
+
+/**
+ * Scrolling range-time view of the profiles in a ProfileRing. The texture is the ring
+ * itself, so each frame only uploads the new rows and the shader offsets the rows by
+ * the position of the newest one instead of the history being moved.
+ */
+public class WaterfallShader implements IVisualizationShader {
+    private final ShaderProgram _program;
+    private final ProfileRing _ring;
+    private final int _texture;
+    private int _textureLocation, _headLocation;
+
+    /**
+     * Value of ProfileRing.getWritten() when the texture was last updated
+     */
+    private long _uploaded;
+
+	public WaterfallShader(ShaderProgram program, ProfileRing ring) {
+		_program = program;
+		_ring = ring;
+		_textureLocation = _program.getUniformLocation("waterfall");
+		_headLocation = _program.getUniformLocation("head");
+
+		int[] textures = new int[1];
+        GLES20.glGenTextures(textures.length, textures, 0);
+        _texture = textures[0];
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, _texture);
+        Shaders.checkGlError("glBindTexture");
+
+        // Rows wrap around in the shader so the seam between newest and oldest mustn't be filtered
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+
+        // Start out blank and fill in the history kept while another visualization was shown
+        GLES20.glTexImage2D(
+        	GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE,
+        	_ring.getWidth(), _ring.getCapacity(), 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE,
+        	ByteBuffer.allocate(_ring.getWidth() * _ring.getCapacity()));
+        Shaders.checkGlError("glTexImage2D");
+
+        _uploaded = _ring.upload(0);
+	}
+
+	@Override
+	public void draw(float[] operator, float[] samples0, float[] samples1) {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, _texture);
+        GLES20.glUniform1i(_textureLocation, 0);
+
+        // Transfer the rows added since the last frame
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        _uploaded = _ring.upload(_uploaded);
+        Shaders.checkGlError("glTexSubImage2D");
+
+        // Texture coordinate of the newest row
+        final int capacity = _ring.getCapacity();
+        final long newest = (_uploaded + capacity - 1) % capacity;
+        GLES20.glUniform1f(_headLocation, (newest + 0.5f) / capacity);
+        Shaders.checkGlError("glUniform1f");
+	}
+}
@@ -0,0 +1,78 @@
+package se.embargo.sonogram.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.embargo.sonogram.dsp.BasebandCorrelationFilter;
+import se.embargo.sonogram.dsp.BlockedCorrelationFilter;
+import se.embargo.sonogram.dsp.CrossCorrelationFilter;
+import se.embargo.sonogram.dsp.FftCorrelationFilter;
+import se.embargo.sonogram.dsp.FixedPointCorrelationFilter;
+import se.embargo.sonogram.dsp.ISignalFilter;
+
+/**
+ * Matched filter cost per frame
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CorrelationBenchmark {
+	private ISignalFilter.Item _item;
+	private final ISignalFilter _direct = new CrossCorrelationFilter(), _fft = new FftCorrelationFilter();
+	private final ISignalFilter _baseband = new BasebandCorrelationFilter(), _blocked = new BlockedCorrelationFilter();
+	private final ISignalFilter _fixedpoint = new FixedPointCorrelationFilter();
+	
+	@Setup
+	public void setup() {
+		_item = Frames.createItem(1);
+	}
+
+	@Benchmark
+	public float[] crossCorrelation() {
+		_direct.accept(_item);
+		return _item.output;
+	}
+	
+	@Benchmark
+	public float[] fftCorrelation() {
+		_fft.accept(_item);
+		return _item.output;
+	}
+	
+	@Benchmark
+	public float[] blockedCorrelation() {
+		_blocked.accept(_item);
+		return _item.output;
+	}
+	
+	@Benchmark
+	public float[] fixedPointCorrelation() {
+		_fixedpoint.accept(_item);
+		return _item.output;
+	}
+	
+	@Benchmark
+	public float[] basebandCorrelation() {
+		_baseband.accept(_item);
+		return _item.output;
+	}
+	
+	@Benchmark
+	public float[] deinterleave() {
+		_item.deinterleave();
+		return _item.getChannel(0);
+	}
+}
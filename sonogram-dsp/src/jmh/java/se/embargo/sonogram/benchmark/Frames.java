@@ -0,0 +1,69 @@
+package se.embargo.sonogram.benchmark;
+
+import java.util.Random;
+
+import se.embargo.sonogram.dsp.Bounds;
+import se.embargo.sonogram.dsp.ISignalFilter;
+import se.embargo.sonogram.dsp.Operator;
+import se.embargo.sonogram.dsp.Signals;
+
+/**
+ * Synthetic frames with the same dimensions as the live sonar, 80ms pulse 
+ * interval and 20ms chirp at 48kHz with two echoes in noise.
+ */
+public class Frames {
+	public static final int SAMPLERATE = 48000;
+	public static final int PULSEINTERVAL = 80;
+	public static final int PULSEDURATION = 20;
+	
+	public static final float[] OPERATOR = Operator.intern(Signals.createLinearChirp(
+		SAMPLERATE, PULSEDURATION,
+			(float)SAMPLERATE / 16f, (float)SAMPLERATE / 2f - (float)SAMPLERATE / 16f));
+	
+	public static final int RESOLUTION = SAMPLERATE * PULSEINTERVAL / 1000;
+	public static final int SAMPLECOUNT = (RESOLUTION + OPERATOR.length) * ISignalFilter.Item.CHANNELS;
+	public static final Bounds BOUNDS = new Bounds(0, 0, RESOLUTION * 2, RESOLUTION);
+	
+	/**
+	 * @return	Interleaved stereo samples containing noise and echoes of the operator
+	 */
+	public static short[] createSamples(long seed) {
+		Random random = new Random(seed);
+		short[] samples = new short[SAMPLECOUNT];
+		float[] mixed = new float[SAMPLECOUNT];
+		
+		for (int i = 0; i < mixed.length; i++) {
+			mixed[i] = (float)random.nextGaussian() * 0.05f;
+		}
+		
+		// Direct pulse and an echo with slightly different delays in each channel
+		addEcho(mixed, 0, 0.5f);
+		addEcho(mixed, 1200, 0.1f);
+		
+		for (int i = 0; i < mixed.length; i++) {
+			samples[i] = (short)(Math.max(-1.0f, Math.min(1.0f, mixed[i])) * Short.MAX_VALUE);
+		}
+		
+		return samples;
+	}
+	
+	/**
+	 * @return	Item initialized with a synthetic frame and deinterleaved, ready for filtering
+	 */
+	public static ISignalFilter.Item createItem(long seed) {
+		ISignalFilter.Item item = new ISignalFilter.Item(SAMPLERATE, SAMPLECOUNT);
+		item.init(OPERATOR, createSamples(seed), BOUNDS, BOUNDS, BOUNDS);
+		item.deinterleave();
+		return item;
+	}
+	
+	private static void addEcho(float[] mixed, int delay, float amplitude) {
+		for (int i = 0; i < OPERATOR.length; i++) {
+			int left = (delay + i) * 2, right = (delay + 3 + i) * 2 + 1;
+			if (right < mixed.length) {
+				mixed[left] += OPERATOR[i] * amplitude;
+				mixed[right] += OPERATOR[i] * amplitude;
+			}
+		}
+	}
+}
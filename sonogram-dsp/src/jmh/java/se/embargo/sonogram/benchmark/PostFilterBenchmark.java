@@ -0,0 +1,109 @@
+package se.embargo.sonogram.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.embargo.sonogram.dsp.AmplificationFilter;
+import se.embargo.sonogram.dsp.AverageFilter;
+import se.embargo.sonogram.dsp.CompositeFilter;
+import se.embargo.sonogram.dsp.FftCorrelationFilter;
+import se.embargo.sonogram.dsp.FusedCompositeFilter;
+import se.embargo.sonogram.dsp.ISignalFilter;
+import se.embargo.sonogram.dsp.LeadingEdgeFilter;
+import se.embargo.sonogram.dsp.MeanPeakDetector;
+import se.embargo.sonogram.dsp.MonoFilter;
+import se.embargo.sonogram.dsp.PulseIntegrator;
+import se.embargo.sonogram.dsp.SharpenFilter;
+import se.embargo.sonogram.dsp.SmoothenFilter;
+
+/**
+ * Filters applied after the matched filter, each run on a fresh copy of a correlated frame.
+ * The copy is part of the measurement, "none" measures it on its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PostFilterBenchmark {
+	@Param({"none", "amplification", "average", "integrate", "leadingedge", "meanpeak", "mono", "sharpen", "smoothen", "chain", "fusedchain"})
+	public String filter;
+	
+	private ISignalFilter.Item _item;
+	private float[] _correlated;
+	private ISignalFilter _filter;
+	
+	@Setup
+	public void setup() {
+		_item = Frames.createItem(1);
+		new FftCorrelationFilter().accept(_item);
+		_correlated = _item.output.clone();
+	}
+	
+	/**
+	 * Starts each iteration with a new filter, so filters which integrate over frames start out empty
+	 */
+	@Setup(Level.Iteration)
+	public void reset() {
+		_filter = createFilter(filter);
+	}
+	
+	@Benchmark
+	public float[] accept() {
+		// Setup per invocation would be unreliable at this scale, so the frame is restored here
+		System.arraycopy(_correlated, 0, _item.output, 0, _correlated.length);
+		_filter.accept(_item);
+		return _item.output;
+	}
+	
+	private static ISignalFilter createFilter(String name) {
+		if ("none".equals(name)) {
+			return new CompositeFilter();
+		}
+		else if ("amplification".equals(name)) {
+			return new AmplificationFilter();
+		}
+		else if ("average".equals(name)) {
+			return new AverageFilter();
+		}
+		else if ("integrate".equals(name)) {
+			return new PulseIntegrator(PulseIntegrator.Mode.Incoherent, 64, 64);
+		}
+		else if ("leadingedge".equals(name)) {
+			return new LeadingEdgeFilter();
+		}
+		else if ("meanpeak".equals(name)) {
+			return new MeanPeakDetector();
+		}
+		else if ("mono".equals(name)) {
+			return new MonoFilter();
+		}
+		else if ("sharpen".equals(name)) {
+			return new SharpenFilter();
+		}
+		else if ("smoothen".equals(name)) {
+			return new SmoothenFilter();
+		}
+		else if ("chain".equals(name)) {
+			return new CompositeFilter(new MonoFilter(), new SmoothenFilter(), new SharpenFilter(), new AmplificationFilter());
+		}
+		else if ("fusedchain".equals(name)) {
+			return new FusedCompositeFilter(new MonoFilter(), new SmoothenFilter(), new SharpenFilter(), new AmplificationFilter());
+		}
+		
+		throw new IllegalArgumentException("Unknown filter: " + name);
+	}
+}
@@ -0,0 +1,58 @@
+package se.embargo.sonogram.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.embargo.sonogram.dsp.Operator;
+import se.embargo.sonogram.dsp.Signals;
+
+/**
+ * Single threaded Signals helpers on one channel of a frame
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SignalsBenchmark {
+	private short[] _samples;
+	private float[] _reversed, _output, _detected;
+	
+	@Setup
+	public void setup() {
+		short[] interleaved = Frames.createSamples(1);
+		_samples = new short[interleaved.length / 2];
+		for (int i = 0; i < _samples.length; i++) {
+			_samples[i] = interleaved[i * 2];
+		}
+		
+		_reversed = Operator.get(Frames.OPERATOR).getReversed();
+		_output = new float[_samples.length];
+		_detected = new float[_samples.length];
+		Signals.convolve(_samples, _reversed, _output);
+	}
+	
+	@Benchmark
+	public float[] convolve() {
+		Signals.convolve(_samples, _reversed, _output);
+		return _output;
+	}
+	
+	@Benchmark
+	public float[] detect() {
+		System.arraycopy(_output, 0, _detected, 0, _output.length);
+		Signals.detect(_detected);
+		return _detected;
+	}
+}
@@ -0,0 +1,197 @@
+package se.embargo.sonogram.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.embargo.sonogram.dsp.ISignalFilter;
+import se.embargo.sonogram.stream.IndexedRecordingReader;
+import se.embargo.sonogram.stream.RecordingWriter;
+import se.embargo.sonogram.stream.StreamFormat;
+import se.embargo.sonogram.stream.StreamHeader;
+
+/**
+ * Recording and replay throughput of the .sonar formats, reported as time per frame
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+	private static final int FRAMES = 64;
+	
+	private StreamHeader _header, _indexedheader;
+	private short[][] _frames;
+	private short[] _buffer;
+	private byte[] _recording;
+	
+	/**
+	 * Uncompressed recordings in native and big endian byte order, replayed from memory maps
+	 */
+	private File _mapped, _mappedbigendian;
+	private ISignalFilter.Item _item;
+	
+	@Setup
+	public void setup() throws IOException {
+		_header = new StreamHeader(Frames.SAMPLERATE, 0.12f, Frames.SAMPLECOUNT, Frames.BOUNDS.width(), Frames.BOUNDS.height(), Frames.OPERATOR);
+		_header.version = StreamFormat.VERSION_STREAM;
+		_indexedheader = new StreamHeader(Frames.SAMPLERATE, 0.12f, Frames.SAMPLECOUNT, Frames.BOUNDS.width(), Frames.BOUNDS.height(), Frames.OPERATOR);
+		_frames = new short[FRAMES][];
+		for (int i = 0; i < FRAMES; i++) {
+			_frames[i] = Frames.createSamples(i);
+		}
+		
+		_buffer = new short[Frames.SAMPLECOUNT];
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		write(os);
+		_recording = os.toByteArray();
+		
+		_mapped = writeFile(StreamFormat.getNativeUncompressed());
+		_mappedbigendian = writeFile(StreamFormat.COMPRESSION_NONE);
+		_item = new ISignalFilter.Item(Frames.SAMPLERATE, Frames.SAMPLECOUNT);
+	}
+	
+	@TearDown
+	public void teardown() {
+		_mapped.delete();
+		_mappedbigendian.delete();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public int write() throws IOException {
+		CountingOutputStream os = new CountingOutputStream();
+		write(os);
+		return os.count;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public int writeIndexed() throws IOException {
+		return writeIndexed(StreamFormat.COMPRESSION_PREDICTIVE);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public int writeIndexedDeflate() throws IOException {
+		return writeIndexed(StreamFormat.COMPRESSION_DEFLATE);
+	}
+	
+	private int writeIndexed(int compression) throws IOException {
+		CountingOutputStream os = new CountingOutputStream();
+		RecordingWriter writer = new RecordingWriter(os, compression);
+		writer.writeHeader(_indexedheader);
+		
+		for (int i = 0; i < FRAMES; i++) {
+			writer.writeFrame(_frames[i], 0, i, 0.12f);
+		}
+		
+		writer.close();
+		return os.count;
+	}
+	
+	/**
+	 * Replays mapped frames in the native byte order into the planar channels of an item
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public ISignalFilter.Item readMapped() throws IOException {
+		return readMapped(_mapped);
+	}
+	
+	/**
+	 * Replays mapped frames which need their bytes swapped on little endian machines
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public ISignalFilter.Item readMappedBigEndian() throws IOException {
+		return readMapped(_mappedbigendian);
+	}
+	
+	private ISignalFilter.Item readMapped(File file) throws IOException {
+		IndexedRecordingReader reader = new IndexedRecordingReader(file);
+		ShortBuffer frame;
+		
+		while ((frame = reader.readBuffer()) != null) {
+			_item.init(Frames.OPERATOR, frame, Frames.BOUNDS, Frames.BOUNDS, Frames.BOUNDS);
+			_item.deinterleave();
+		}
+		
+		reader.close();
+		return _item;
+	}
+	
+	private File writeFile(int compression) throws IOException {
+		File file = File.createTempFile("benchmark", ".sonar");
+		RecordingWriter writer = new RecordingWriter(new FileOutputStream(file), compression);
+		writer.writeHeader(new StreamHeader(Frames.SAMPLERATE, 0.12f, Frames.SAMPLECOUNT, Frames.BOUNDS.width(), Frames.BOUNDS.height(), Frames.OPERATOR));
+		
+		for (int i = 0; i < FRAMES; i++) {
+			writer.writeFrame(_frames[i], 0, i, 0.12f);
+		}
+		
+		writer.close();
+		return file;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public short[] read() throws IOException {
+		DataInputStream is = StreamFormat.createInputStream(new ByteArrayInputStream(_recording));
+		StreamHeader.read(is);
+		
+		for (int i = 0; i < FRAMES; i++) {
+			StreamFormat.readFrame(is, _buffer, 0, _buffer.length);
+		}
+		
+		is.close();
+		return _buffer;
+	}
+	
+	private void write(OutputStream target) throws IOException {
+		DataOutputStream os = StreamFormat.createOutputStream(target);
+		_header.write(os);
+		
+		for (int i = 0; i < FRAMES; i++) {
+			StreamFormat.writeFrame(os, _frames[i], 0, _frames[i].length);
+		}
+		
+		os.close();
+	}
+	
+	private static class CountingOutputStream extends OutputStream {
+		public int count = 0;
+		
+		@Override
+		public void write(int b) {
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
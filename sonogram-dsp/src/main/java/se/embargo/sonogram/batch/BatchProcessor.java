@@ -0,0 +1,489 @@
+package se.embargo.sonogram.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import se.embargo.sonogram.dsp.Bounds;
+import se.embargo.sonogram.dsp.DelayAndSumImager;
+import se.embargo.sonogram.dsp.ISignalFilter;
+import se.embargo.sonogram.dsp.Operator;
+import se.embargo.sonogram.dsp.Parallel;
+import se.embargo.sonogram.dsp.Signals;
+import se.embargo.sonogram.stream.IRecordingReader;
+import se.embargo.sonogram.stream.StreamFormat;
+import se.embargo.sonogram.stream.StreamHeader;
+
+/**
+ * Runs a filter chain over .sonar recordings without a display or playback clock.
+ * Recordings are spread over a work-stealing pool, and the frames of a recording
+ * are filtered in parallel when the chain is stateless. Results are written in
+ * frame order next to each recording, or into an output directory.
+ */
+public class BatchProcessor {
+	public enum Format {
+		/**
+		 * Filter output of every frame as big endian floats, in a .profile file
+		 */
+		Profile,
+
+		/**
+		 * Non-zero local maxima of the filter output as CSV, in a .csv file
+		 */
+		Detections,
+
+		/**
+		 * Image of every frame from DelayAndSumImager, as a multi-image .pgm file
+		 */
+		Image
+	};
+
+	/**
+	 * Default size of the images in pixels
+	 */
+	public static final int IMAGE_SIZE = 512;
+
+	private final FilterChain _chain;
+	private final Format _format;
+	private final File _outputdir;
+	private final ForkJoinPool _pool;
+	private final int _imagewidth, _imageheight;
+
+	/**
+	 * Number of frames in flight for each recording
+	 */
+	private final int _window;
+
+	private final AtomicLong _frames = new AtomicLong(), _failures = new AtomicLong();
+
+	/**
+	 * @param chain		Filter chain to run
+	 * @param format	Output format
+	 * @param outputdir	Directory to write results to, or null to write next to each recording
+	 * @param threads	Number of worker threads
+	 * @param imagewidth	Width of the images written in the Image format
+	 * @param imageheight	Height of the images written in the Image format
+	 */
+	public BatchProcessor(FilterChain chain, Format format, File outputdir, int threads, int imagewidth, int imageheight) {
+		_chain = chain;
+		_format = format;
+		_outputdir = outputdir;
+		_pool = new ForkJoinPool(threads);
+		_window = threads * 2;
+		_imagewidth = imagewidth;
+		_imageheight = imageheight;
+	}
+
+	public BatchProcessor(FilterChain chain, Format format, File outputdir, int threads) {
+		this(chain, format, outputdir, threads, IMAGE_SIZE, IMAGE_SIZE);
+	}
+
+	/**
+	 * @return	Number of frames processed
+	 */
+	public long getFrames() {
+		return _frames.get();
+	}
+
+	/**
+	 * @return	Number of recordings which could not be processed
+	 */
+	public long getFailures() {
+		return _failures.get();
+	}
+
+	/**
+	 * Processes the given recordings and waits until all are done
+	 */
+	public void process(List<File> files) {
+		final List<RecordingTask> tasks = new ArrayList<RecordingTask>(files.size());
+		for (File file : files) {
+			tasks.add(new RecordingTask(file));
+		}
+
+		_pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	public void shutdown() {
+		_pool.shutdown();
+	}
+
+	private File getOutputFile(File file) {
+		String name = file.getName();
+		if (name.endsWith(".sonar")) {
+			name = name.substring(0, name.length() - ".sonar".length());
+		}
+
+		switch (_format) {
+			case Profile:
+				name += ".profile";
+				break;
+
+			case Detections:
+				name += ".csv";
+				break;
+
+			case Image:
+				name += ".pgm";
+				break;
+		}
+
+		return new File(_outputdir != null ? _outputdir : file.getAbsoluteFile().getParentFile(), name);
+	}
+
+	private IOutput createOutput(File file, StreamHeader header) throws IOException {
+		switch (_format) {
+			case Profile:
+				return new ProfileOutput(file, header);
+
+			case Image:
+				return new ImageOutput(file, _imagewidth, _imageheight);
+
+			default:
+				return new DetectionOutput(file, header);
+		}
+	}
+
+	/**
+	 * Processes a single recording
+	 */
+	private class RecordingTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final File _file;
+
+		public RecordingTask(File file) {
+			_file = file;
+		}
+
+		@Override
+		protected void compute() {
+			long started = System.nanoTime();
+
+			try {
+				long frames = process();
+				_frames.addAndGet(frames);
+				System.out.println(String.format(Locale.US, "%s: %d frames in %.1f s",
+					_file, frames, (System.nanoTime() - started) / 1e9));
+			}
+			catch (IOException e) {
+				_failures.incrementAndGet();
+				System.err.println(_file + ": " + e.getMessage());
+			}
+			catch (RuntimeException e) {
+				_failures.incrementAndGet();
+				System.err.println(_file + ": " + e);
+			}
+		}
+
+		private long process() throws IOException {
+			IRecordingReader recording = StreamFormat.open(_file);
+			IOutput output = null;
+
+			try {
+				StreamHeader header = recording.getHeader();
+				float[] operator = Operator.intern(header.operator);
+				Bounds resolution = new Bounds(0, 0, header.width, header.height);
+				output = createOutput(getOutputFile(_file), header);
+
+				// Stateful chains get their own instance and see the frames in order
+				ISignalFilter filter = _chain.create();
+				int window = _chain.isStateless() ? _window : 1;
+
+				ArrayDeque<FrameTask> pending = new ArrayDeque<FrameTask>(window);
+				ArrayDeque<ISignalFilter.Item> items = new ArrayDeque<ISignalFilter.Item>(window);
+				for (int i = 0; i < window; i++) {
+					ISignalFilter.Item item = new ISignalFilter.Item(header.samplerate, header.samplecount);
+					item.init(operator, new short[header.samplecount], 0, resolution, resolution, resolution);
+					items.add(item);
+				}
+
+				long sequence = 0;
+				while (true) {
+					if (items.isEmpty()) {
+						// Write the oldest frame to make room, helping out with other tasks while waiting
+						FrameTask task = pending.poll();
+						task.join();
+						output.write(task.item);
+						items.add(task.item);
+					}
+
+					// Any trailing partial frame is ignored
+					ISignalFilter.Item item = items.poll();
+					if (!recording.read(item.samples, 0)) {
+						break;
+					}
+
+					item.sequence = sequence++;
+					item.timestamp = recording.getTimestamp();
+					item.baseline = recording.getBaseline();
+
+					FrameTask task = new FrameTask(filter, item);
+					if (window > 1) {
+						task.fork();
+					}
+					else {
+						task.invoke();
+					}
+
+					pending.add(task);
+				}
+
+				while (!pending.isEmpty()) {
+					FrameTask task = pending.poll();
+					task.join();
+					output.write(task.item);
+				}
+
+				return sequence;
+			}
+			finally {
+				recording.close();
+
+				if (output != null) {
+					output.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Filters a single frame
+	 */
+	private static class FrameTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ISignalFilter _filter;
+		public final ISignalFilter.Item item;
+
+		public FrameTask(ISignalFilter filter, ISignalFilter.Item item) {
+			_filter = filter;
+			this.item = item;
+		}
+
+		@Override
+		protected void compute() {
+			item.deinterleave();
+			_filter.accept(item);
+		}
+	}
+
+	private interface IOutput {
+		void write(ISignalFilter.Item item) throws IOException;
+		void close() throws IOException;
+	}
+
+	/**
+	 * Writes the sample rate, number of values per frame and then each frame
+	 * as its sequence number followed by the interleaved output values.
+	 */
+	private static class ProfileOutput implements IOutput {
+		private final DataOutputStream _os;
+
+		public ProfileOutput(File file, StreamHeader header) throws IOException {
+			_os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			_os.writeFloat(header.samplerate);
+			_os.writeInt(header.samplecount);
+		}
+
+		@Override
+		public void write(ISignalFilter.Item item) throws IOException {
+			final float[] output = item.output;
+			_os.writeLong(item.sequence);
+			for (int i = 0; i < output.length; i++) {
+				_os.writeFloat(output[i]);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			_os.close();
+		}
+	}
+
+	/**
+	 * Writes one line per echo, i.e. each non-zero local maximum of a channel
+	 */
+	private static class DetectionOutput implements IOutput {
+		private final BufferedWriter _os;
+
+		public DetectionOutput(File file, StreamHeader header) throws IOException {
+			_os = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			_os.write("frame,channel,sample,distance,value\n");
+		}
+
+		@Override
+		public void write(ISignalFilter.Item item) throws IOException {
+			final float[] output = item.output;
+			for (int i = 2; i < output.length - 2; i++) {
+				final float value = output[i];
+				if (value > 0.0f && value > output[i - 2] && value >= output[i + 2]) {
+					final int sample = i / ISignalFilter.Item.CHANNELS;
+					_os.write(String.format(Locale.US, "%d,%d,%d,%.3f,%g\n",
+						item.sequence, i % ISignalFilter.Item.CHANNELS, sample, Signals.distance(item.samplerate, sample), value));
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			_os.close();
+		}
+	}
+
+	/**
+	 * Writes the image of every frame, back to back as a multi-image PGM
+	 */
+	private static class ImageOutput implements IOutput {
+		private final OutputStream _os;
+		private final DelayAndSumImager _imager = new DelayAndSumImager();
+		private final DelayAndSumImager.Image _image;
+
+		public ImageOutput(File file, int width, int height) throws IOException {
+			_os = new BufferedOutputStream(new FileOutputStream(file));
+			_image = new DelayAndSumImager.Image(width, height);
+		}
+
+		@Override
+		public void write(ISignalFilter.Item item) throws IOException {
+			_imager.render(item, _image);
+			_image.write(_os);
+		}
+
+		@Override
+		public void close() throws IOException {
+			_os.close();
+		}
+	}
+
+	private static void usage() {
+		System.err.println("usage: BatchProcessor [options] <recording.sonar|directory>...");
+		System.err.println("  -chain <filters>    Comma separated filter chain, default " + FilterChain.DEFAULT);
+		System.err.println("                      Filters: " + FilterChain.NAMES);
+		System.err.println("  -format <format>    profile, detections or image, default profile");
+		System.err.println("  -output <directory> Write results to directory instead of next to each recording");
+		System.err.println("  -threads <count>    Number of worker threads, default " + Parallel.getNumberOfCores());
+		System.err.println("  -size <w>x<h>       Size of images in pixels, default " + IMAGE_SIZE + "x" + IMAGE_SIZE);
+		System.exit(2);
+	}
+
+	private static void collect(File file, List<File> result) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					if (child.isDirectory() || child.getName().endsWith(".sonar")) {
+						collect(child, result);
+					}
+				}
+			}
+		}
+		else {
+			result.add(file);
+		}
+	}
+
+	public static void main(String[] args) {
+		String chain = FilterChain.DEFAULT;
+		Format format = Format.Profile;
+		File outputdir = null;
+		int threads = Parallel.getNumberOfCores();
+		int imagewidth = IMAGE_SIZE, imageheight = IMAGE_SIZE;
+		List<File> files = new ArrayList<File>();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if ("-chain".equals(args[i]) && i + 1 < args.length) {
+					chain = args[++i];
+				}
+				else if ("-format".equals(args[i]) && i + 1 < args.length) {
+					String value = args[++i];
+					if ("profile".equals(value)) {
+						format = Format.Profile;
+					}
+					else if ("detections".equals(value)) {
+						format = Format.Detections;
+					}
+					else if ("image".equals(value)) {
+						format = Format.Image;
+					}
+					else {
+						usage();
+					}
+				}
+				else if ("-output".equals(args[i]) && i + 1 < args.length) {
+					outputdir = new File(args[++i]);
+				}
+				else if ("-threads".equals(args[i]) && i + 1 < args.length) {
+					threads = Math.max(Integer.parseInt(args[++i]), 1);
+				}
+				else if ("-size".equals(args[i]) && i + 1 < args.length) {
+					String[] size = args[++i].split("x");
+					if (size.length != 2) {
+						usage();
+					}
+
+					imagewidth = Math.max(Integer.parseInt(size[0]), 1);
+					imageheight = Math.max(Integer.parseInt(size[1]), 1);
+				}
+				else if (args[i].startsWith("-")) {
+					usage();
+				}
+				else {
+					collect(new File(args[i]), files);
+				}
+			}
+		}
+		catch (NumberFormatException e) {
+			usage();
+		}
+
+		if (files.isEmpty()) {
+			usage();
+		}
+
+		FilterChain filters = null;
+		try {
+			filters = new FilterChain(chain);
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			usage();
+		}
+
+		if (outputdir != null && !outputdir.isDirectory() && !outputdir.mkdirs()) {
+			System.err.println("Failed to create output directory " + outputdir);
+			System.exit(1);
+		}
+
+		long started = System.nanoTime();
+		BatchProcessor processor = new BatchProcessor(filters, format, outputdir, threads, imagewidth, imageheight);
+		processor.process(files);
+		processor.shutdown();
+
+		double elapsed = (System.nanoTime() - started) / 1e9;
+		System.out.println(String.format(Locale.US, "%d recordings, %d frames in %.1f s (%.1f frames/s)",
+			files.size(), processor.getFrames(), elapsed, processor.getFrames() / elapsed));
+
+		if (processor.getFailures() > 0) {
+			System.exit(1);
+		}
+	}
+}
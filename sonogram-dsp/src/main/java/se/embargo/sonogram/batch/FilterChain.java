@@ -0,0 +1,119 @@
+package se.embargo.sonogram.batch;
+
+import se.embargo.sonogram.dsp.AmplificationFilter;
+import se.embargo.sonogram.dsp.AverageFilter;
+import se.embargo.sonogram.dsp.BasebandCorrelationFilter;
+import se.embargo.sonogram.dsp.BlockedCorrelationFilter;
+import se.embargo.sonogram.dsp.CrossCorrelationFilter;
+import se.embargo.sonogram.dsp.FftCorrelationFilter;
+import se.embargo.sonogram.dsp.FixedPointCorrelationFilter;
+import se.embargo.sonogram.dsp.FusedCompositeFilter;
+import se.embargo.sonogram.dsp.ISignalFilter;
+import se.embargo.sonogram.dsp.LeadingEdgeFilter;
+import se.embargo.sonogram.dsp.MeanPeakDetector;
+import se.embargo.sonogram.dsp.MonoFilter;
+import se.embargo.sonogram.dsp.PulseIntegrator;
+import se.embargo.sonogram.dsp.SharpenFilter;
+import se.embargo.sonogram.dsp.SmoothenFilter;
+
+/**
+ * Filter chain described by a comma separated list of filter names, e.g. 
+ * "correlation,smoothen,meanpeak".
+ */
+public class FilterChain {
+	public static final String DEFAULT = "correlation,smoothen,meanpeak";
+	public static final String NAMES = "correlation, directcorrelation, blockedcorrelation, basebandcorrelation, fixedcorrelation, smoothen, meanpeak, mono, sharpen, amplification, leadingedge, average, integrate, coherentintegrate";
+	
+	/**
+	 * Number of frames integrated by integrate and coherentintegrate
+	 */
+	public static final int INTEGRATION_WINDOW = 16;
+	
+	private final String[] _names;
+	private final boolean _stateless;
+	
+	/**
+	 * @throws IllegalArgumentException	If the description contains an unknown filter
+	 */
+	public FilterChain(String description) {
+		_names = description.split(",");
+		
+		boolean stateless = true;
+		for (int i = 0; i < _names.length; i++) {
+			_names[i] = _names[i].trim();
+			
+			// Integrators keep state between frames
+			if (create(_names[i]) instanceof PulseIntegrator) {
+				stateless = false;
+			}
+		}
+		
+		_stateless = stateless;
+	}
+	
+	/**
+	 * @return	True if frames can be filtered independently and in any order
+	 */
+	public boolean isStateless() {
+		return _stateless;
+	}
+	
+	/**
+	 * @return	New instance of the filter chain, stateful filters must not be shared between recordings
+	 */
+	public ISignalFilter create() {
+		FusedCompositeFilter result = new FusedCompositeFilter();
+		for (String name : _names) {
+			result.add(create(name));
+		}
+		
+		return result;
+	}
+	
+	private static ISignalFilter create(String name) {
+		if ("correlation".equals(name)) {
+			return new FftCorrelationFilter();
+		}
+		else if ("directcorrelation".equals(name)) {
+			return new CrossCorrelationFilter();
+		}
+		else if ("blockedcorrelation".equals(name)) {
+			return new BlockedCorrelationFilter();
+		}
+		else if ("basebandcorrelation".equals(name)) {
+			return new BasebandCorrelationFilter();
+		}
+		else if ("fixedcorrelation".equals(name)) {
+			return new FixedPointCorrelationFilter();
+		}
+		else if ("smoothen".equals(name)) {
+			return new SmoothenFilter();
+		}
+		else if ("meanpeak".equals(name)) {
+			return new MeanPeakDetector();
+		}
+		else if ("mono".equals(name)) {
+			return new MonoFilter();
+		}
+		else if ("sharpen".equals(name)) {
+			return new SharpenFilter();
+		}
+		else if ("amplification".equals(name)) {
+			return new AmplificationFilter();
+		}
+		else if ("leadingedge".equals(name)) {
+			return new LeadingEdgeFilter();
+		}
+		else if ("average".equals(name)) {
+			return new AverageFilter();
+		}
+		else if ("integrate".equals(name)) {
+			return new PulseIntegrator(PulseIntegrator.Mode.Incoherent, INTEGRATION_WINDOW, INTEGRATION_WINDOW);
+		}
+		else if ("coherentintegrate".equals(name)) {
+			return new PulseIntegrator(PulseIntegrator.Mode.Coherent, INTEGRATION_WINDOW, INTEGRATION_WINDOW);
+		}
+		
+		throw new IllegalArgumentException("Unknown filter: " + name);
+	}
+}
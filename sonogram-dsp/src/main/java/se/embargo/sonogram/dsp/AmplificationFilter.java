@@ -1,6 +1,6 @@
 package se.embargo.sonogram.dsp;
 
-public class AmplificationFilter implements ISignalFilter {
+public class AmplificationFilter implements IFusableFilter {
 	private final int _offset, _step;
 	
 	public AmplificationFilter(int offset, int step) {
@@ -14,8 +14,18 @@ public class AmplificationFilter implements ISignalFilter {
 
 	@Override
 	public void accept(Item item) {
+		accept(item, item.first, item.last);
+	}
+
+	@Override
+	public int getReach() {
+		return 0;
+	}
+
+	@Override
+	public void accept(Item item, int first, int last) {
 		final float[] output = item.output;
-		for (int i = _offset; i < output.length; i += _step) {
+		for (int i = Signals.align(first, _offset, _step), il = Math.min(last, output.length); i < il; i += _step) {
 			output[i] = (float)Math.log(Math.log(output[i] + 1.0f) + 1.0f);
 		}
 	}
@@ -0,0 +1,10 @@
+package se.embargo.sonogram.dsp;
+
+/**
+ * Averages the output of the last 4 frames
+ */
+public class AverageFilter extends PulseIntegrator {
+	public AverageFilter() {
+		super(Mode.Incoherent, 4, 4);
+	}
+}
@@ -0,0 +1,240 @@
+package se.embargo.sonogram.dsp;
+
+/**
+ * Matched filter which correlates in complex baseband at half the sample rate.
+ * The chirp from Sonar spans samplerate/16 to 7/16 of the sample rate, so mixing
+ * each channel down by samplerate/4 centers it around zero within +-samplerate/4,
+ * where it can be low-pass filtered and decimated by two without aliasing. The
+ * bandwidth and with it the range resolution are unchanged. The baseband signal
+ * is correlated with overlap-save block convolution, where the transforms are half
+ * the size of those of FftCorrelationFilter.
+ *
+ * The output is the envelope of the correlation with Operator.getBaseband(),
+ * scaled so that its peaks match the peaks of CrossCorrelationFilter. Odd full
+ * rate outputs are interpolated halfway between the complex correlation samples
+ * with a windowed sinc, which is flat to within about 1% over the chirp band.
+ * The baseband signal is zero padded on both sides like the full rate signal is,
+ * so the interpolator is used at the ends of the frame as well. Rather than
+ * following the carrier like the full rate output the envelope is smooth, which
+ * downstream peak detection benefits from.
+ */
+public class BasebandCorrelationFilter implements ISignalFilter {
+	/**
+	 * Number of correlation samples on each side used to interpolate the odd outputs
+	 */
+	private static final int REACH = 8;
+
+	/**
+	 * First correlation sample, the one the interpolator needs for the first output
+	 */
+	private static final int ORIGIN = 1 - REACH;
+	private static final float[] INTERPOLATOR = createInterpolator();
+
+	private final DemodulateBody _demodulate = new DemodulateBody();
+	private final CorrelateBody _correlate = new CorrelateBody();
+
+	/**
+	 * Baseband signal and correlation of the item being filtered by the calling thread
+	 */
+	private final ThreadLocal<Frame> _frames = new ThreadLocal<Frame>() {
+		@Override
+		protected Frame initialValue() {
+			return new Frame();
+		}
+	};
+
+	/**
+	 * Transform blocks of the thread correlating them
+	 */
+	private final ThreadLocal<float[][]> _scratch = new ThreadLocal<float[][]>() {
+		@Override
+		protected float[][] initialValue() {
+			return new float[2][0];
+		}
+	};
+
+	@Override
+	public void accept(Item item) {
+		final Operator.Baseband operator = Operator.get(item.operator).getBaseband();
+		final int inputcount = item.getChannelLength();
+		final int outputcount = inputcount - item.operator.length;
+		final int length = operator.re.length;
+
+		// Baseband samples available from the frame
+		final int basebandcount = (inputcount + 1) / 2;
+
+		// Full rate outputs within the range gate, and the baseband correlation needed to interpolate them
+		final int first = Math.min(item.first / 2, outputcount), last = Math.min((item.last + 1) / 2, outputcount);
+		if (first >= last) {
+			return;
+		}
+
+		final int envelopefirst = first / 2 - REACH + 1, envelopelast = (last - 1) / 2 + REACH + 1;
+
+		// Blocks are laid out from the origin regardless of the gate, so gating doesn't change the result
+		final int hop = operator.fft.size() - length + 1;
+		final int firstblock = (envelopefirst - ORIGIN) / hop, lastblock = (envelopelast - ORIGIN + hop - 1) / hop;
+
+		Frame frame = _frames.get();
+		frame.init(item, operator, basebandcount, firstblock, lastblock, hop);
+		Parallel.forRange(_demodulate, frame, frame.inputfirst, frame.inputlast);
+		Parallel.forRange(_correlate, frame, firstblock, lastblock);
+
+		final float[] output = item.output;
+		final float scale = operator.scale;
+		for (int c = 0; c < Item.CHANNELS; c++) {
+			final float[] re = frame.correlation[c * 2], im = frame.correlation[c * 2 + 1];
+
+			for (int i = first, oi = first * 2 + c; i < last; i++, oi += 2) {
+				final int m = (i >> 1) - ORIGIN;
+				float vre, vim;
+
+				if ((i & 1) == 0) {
+					vre = re[m];
+					vim = im[m];
+				}
+				else {
+					vre = 0.0f;
+					vim = 0.0f;
+					for (int k = 0, si = m - REACH + 1; k < INTERPOLATOR.length; k++, si++) {
+						vre += INTERPOLATOR[k] * re[si];
+						vim += INTERPOLATOR[k] * im[si];
+					}
+				}
+
+				output[oi] = (float)Math.sqrt(vre * vre + vim * vim) * scale;
+			}
+		}
+	}
+
+	/**
+	 * Hann windowed sinc which interpolates halfway between samples m and m + 1 from
+	 * the samples m - REACH + 1 to m + REACH
+	 */
+	private static float[] createInterpolator() {
+		float[] result = new float[REACH * 2];
+		double sum = 0.0;
+		for (int k = 0; k < result.length; k++) {
+			double t = k - REACH + 0.5;
+			double value = Math.sin(Math.PI * t) / (Math.PI * t) * (0.5 + 0.5 * Math.cos(Math.PI * t / REACH));
+			result[k] = (float)value;
+			sum += value;
+		}
+
+		for (int k = 0; k < result.length; k++) {
+			result[k] /= (float)sum;
+		}
+
+		return result;
+	}
+
+	private static class Frame {
+		public Item item;
+		public Operator.Baseband operator;
+		public float[][] re = new float[Item.CHANNELS][0], im = new float[Item.CHANNELS][0];
+
+		/**
+		 * Complex correlation as real and imaginary part of each channel, starting at ORIGIN
+		 */
+		public float[][] correlation = new float[Item.CHANNELS * 2][0];
+
+		/**
+		 * Number of correlation samples computed by each block
+		 */
+		public int hop;
+
+		/**
+		 * Baseband samples read by the blocks, the samples outside of the frame are zero
+		 */
+		public int inputfirst, inputlast;
+
+		public void init(Item item, Operator.Baseband operator, int length, int firstblock, int lastblock, int hop) {
+			final int size = operator.fft.size();
+			this.item = item;
+			this.operator = operator;
+			this.hop = hop;
+			this.inputfirst = Math.min(Math.max(ORIGIN + firstblock * hop, 0), length);
+			this.inputlast = Math.max(Math.min(ORIGIN + (lastblock - 1) * hop + size, length), inputfirst);
+
+			if (re[0].length < length) {
+				for (int c = 0; c < Item.CHANNELS; c++) {
+					re[c] = new float[length];
+					im[c] = new float[length];
+				}
+			}
+
+			// Blocks write a whole hop of samples
+			final int count = lastblock * hop;
+			if (correlation[0].length < count) {
+				for (int c = 0; c < Item.CHANNELS * 2; c++) {
+					correlation[c] = new float[count];
+				}
+			}
+		}
+	}
+
+	private static class DemodulateBody implements IForBody<Frame> {
+		@Override
+		public void run(Frame frame, int it, int last) {
+			for (int c = 0; c < Item.CHANNELS; c++) {
+				float[] channel = frame.item.getChannel(c);
+				Signals.demodulate(channel, channel.length, it, last, frame.re[c], frame.im[c]);
+			}
+		}
+	}
+
+	private class CorrelateBody implements IForBody<Frame> {
+		@Override
+		public void run(Frame frame, int it, int last) {
+			final FastFourierTransform fft = frame.operator.fft;
+			final int size = fft.size(), hop = frame.hop;
+			final float[] hre = frame.operator.spectrumre, him = frame.operator.spectrumim;
+
+			float[][] scratch = _scratch.get();
+			if (scratch[0].length != size) {
+				scratch[0] = new float[size];
+				scratch[1] = new float[size];
+			}
+
+			final float[] re = scratch[0], im = scratch[1];
+
+			for (; it < last; it++) {
+				// Baseband samples of the block, zero outside of the frame
+				final int offset = it * hop, start = ORIGIN + offset;
+				final int lo = Math.min(Math.max(frame.inputfirst - start, 0), size);
+				final int hi = Math.max(Math.min(frame.inputlast - start, size), lo);
+
+				for (int c = 0; c < Item.CHANNELS; c++) {
+					final float[] sre = frame.re[c], sim = frame.im[c];
+
+					for (int i = 0; i < lo; i++) {
+						re[i] = 0.0f;
+						im[i] = 0.0f;
+					}
+
+					System.arraycopy(sre, start + lo, re, lo, hi - lo);
+					System.arraycopy(sim, start + lo, im, lo, hi - lo);
+
+					for (int i = hi; i < size; i++) {
+						re[i] = 0.0f;
+						im[i] = 0.0f;
+					}
+
+					// Multiply by the conjugate operator spectrum
+					fft.forward(re, im);
+					for (int i = 0; i < size; i++) {
+						float xr = re[i], xi = im[i];
+						re[i] = xr * hre[i] - xi * him[i];
+						im[i] = xr * him[i] + xi * hre[i];
+					}
+
+					fft.inverse(re, im);
+
+					// Only the first hop samples of each block are free from circular wrap around
+					System.arraycopy(re, 0, frame.correlation[c * 2], offset, hop);
+					System.arraycopy(im, 0, frame.correlation[c * 2 + 1], offset, hop);
+				}
+			}
+		}
+	}
+}
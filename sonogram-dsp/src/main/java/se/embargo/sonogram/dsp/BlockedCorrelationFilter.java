@@ -0,0 +1,111 @@
+package se.embargo.sonogram.dsp;
+
+/**
+ * Time domain matched filter computing the same output as CrossCorrelationFilter,
+ * for short operators and narrow range gates where FftCorrelationFilter isn't
+ * worth its block overhead. Groups of adjacent outputs are computed at once with
+ * independent accumulators, which breaks the dependency chain through a single
+ * accumulator and lets each operator tap be loaded once per group. The taps are
+ * processed in tiles over a block of outputs so that long operators stay in L1.
+ *
+ * Every output still sums the taps in the same order, so the result is
+ * bit-identical to CrossCorrelationFilter.
+ */
+public class BlockedCorrelationFilter implements ISignalFilter {
+	/**
+	 * Number of outputs computed at once in registers
+	 */
+	private static final int GROUP = 4;
+
+	/**
+	 * Number of outputs of each channel that share a tile of taps
+	 */
+	private static final int BLOCK = 64;
+
+	/**
+	 * Number of taps processed for a block before moving to the next tile
+	 */
+	private static final int TILE = 512;
+
+	private final FilterBody _body = new FilterBody();
+
+	private final ThreadLocal<float[]> _accumulators = new ThreadLocal<float[]>() {
+		@Override
+		protected float[] initialValue() {
+			return new float[BLOCK];
+		}
+	};
+
+	@Override
+	public void accept(Item item) {
+		// Outputs of each channel within the range gate, the gate is aligned to channel pairs
+		int first = item.first / 2, last = Math.min(item.last, item.samplecount - item.operator.length * 2) / 2;
+		if (first >= last) {
+			return;
+		}
+
+		// Each index is a block of outputs for both channels
+		int blocks = (last - first + BLOCK - 1) / BLOCK;
+		Parallel.forRange(_body, item, 0, blocks);
+	}
+
+	private class FilterBody implements IForBody<Item> {
+		@Override
+		public void run(Item item, int it, int last) {
+			final float[] operator = item.operator;
+			final float[] matched = item.output;
+			final float[] acc = _accumulators.get();
+			final int taps = operator.length;
+			final int outputfirst = item.first / 2;
+			final int outputlast = Math.min(item.last, item.samplecount - taps * 2) / 2;
+
+			for (; it < last; it++) {
+				final int blockfirst = outputfirst + it * BLOCK, blocklast = Math.min(blockfirst + BLOCK, outputlast);
+				final int count = blocklast - blockfirst;
+
+				for (int c = 0; c < Item.CHANNELS; c++) {
+					final float[] channel = item.getChannel(c);
+					for (int i = 0; i < count; i++) {
+						acc[i] = 0.0f;
+					}
+
+					for (int tile = 0; tile < taps; tile += TILE) {
+						final int tilelast = Math.min(tile + TILE, taps);
+						int i = 0;
+
+						for (; i + GROUP <= count; i += GROUP) {
+							float acc0 = acc[i], acc1 = acc[i + 1], acc2 = acc[i + 2], acc3 = acc[i + 3];
+							for (int j = tile, si = blockfirst + i + tile; j < tilelast; j++, si++) {
+								final float tap = operator[j];
+								acc0 += channel[si] * tap;
+								acc1 += channel[si + 1] * tap;
+								acc2 += channel[si + 2] * tap;
+								acc3 += channel[si + 3] * tap;
+							}
+
+							acc[i] = acc0;
+							acc[i + 1] = acc1;
+							acc[i + 2] = acc2;
+							acc[i + 3] = acc3;
+						}
+
+						// Remaining outputs at the end of the range
+						for (; i < count; i++) {
+							float acc0 = acc[i];
+							for (int j = tile, si = blockfirst + i + tile; j < tilelast; j++, si++) {
+								acc0 += channel[si] * operator[j];
+							}
+
+							acc[i] = acc0;
+						}
+					}
+
+					// Output is interleaved while the normalized input is planar
+					for (int i = 0, oi = blockfirst * 2 + c; i < count; i++, oi += 2) {
+						matched[oi] = Math.abs(acc[i]);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package se.embargo.sonogram.dsp;
+
+/**
+ * Immutable integer rectangle, used for the sonar resolution and viewing window.
+ */
+public class Bounds {
+	public final int left, top, right, bottom;
+	
+	public Bounds(int left, int top, int right, int bottom) {
+		this.left = left;
+		this.top = top;
+		this.right = right;
+		this.bottom = bottom;
+	}
+	
+	public int width() {
+		return right - left;
+	}
+	
+	public int height() {
+		return bottom - top;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Bounds)) {
+			return false;
+		}
+		
+		Bounds other = (Bounds)o;
+		return left == other.left && top == other.top && right == other.right && bottom == other.bottom;
+	}
+	
+	@Override
+	public int hashCode() {
+		return ((left * 31 + top) * 31 + right) * 31 + bottom;
+	}
+	
+	@Override
+	public String toString() {
+		return "Bounds(" + left + ", " + top + " - " + right + ", " + bottom + ")";
+	}
+}
@@ -0,0 +1,151 @@
+package se.embargo.sonogram.dsp;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import se.embargo.sonogram.stream.OutputCache;
+
+/**
+ * Runs a stage whose output only depends on the frame, or restores its output 
+ * from an OutputCache when the frame has passed through the same stage before.
+ * Frames which aren't read from a recording are always passed to the stage.
+ *
+ * The checkpoint must be the first filter of the chain, with the stage holding
+ * every filter in front of the point where the output is cached. The cache key
+ * is derived from the class and configuration of each of those filters, so any
+ * change to the chain up to the checkpoint gives a new entry. Filters whose output
+ * depends on earlier frames, such as PulseIntegrator, clear the source of the item
+ * so their output is never cached.
+ */
+public class CheckpointFilter implements ISignalFilter {
+	private final String _identity;
+	private final ISignalFilter _stage;
+	private final OutputCache _cache;
+	
+	/**
+	 * @param cache		Cache to store the output of the stages in
+	 * @param stages	Filters from the start of the chain up to the checkpoint,
+	 * 					run in order on frames which aren't cached
+	 */
+	public CheckpointFilter(OutputCache cache, ISignalFilter... stages) {
+		_stage = stages.length == 1 ? stages[0] : new CompositeFilter(stages);
+		_identity = describe(_stage);
+		_cache = cache;
+	}
+	
+	@Override
+	public void accept(Item item) {
+		if (item.source == null || item.frame < 0) {
+			_stage.accept(item);
+			return;
+		}
+		
+		OutputCache.Entry entry = _cache.getEntry(item.source, item.operator, _identity, item.samplecount);
+		if (entry != null && entry.read(item.frame, item.output)) {
+			return;
+		}
+		
+		if (entry == null) {
+			_stage.accept(item);
+			return;
+		}
+		
+		// Cached output must be valid for any range gate
+		final int first = item.first, last = item.last;
+		item.first = 0;
+		item.last = item.output.length;
+		
+		try {
+			_stage.accept(item);
+		}
+		finally {
+			item.first = first;
+			item.last = last;
+		}
+		
+		// The output of a stage which integrates over frames isn't a function of the frame
+		if (item.source != null) {
+			entry.write(item.frame, item.output);
+		}
+	}
+	
+	/**
+	 * Describes a filter by its class and the final fields holding its parameters,
+	 * recursing into composite filters and profiled stages.
+	 * @return	Description which changes whenever the configuration of the filter does
+	 */
+	public static String describe(ISignalFilter filter) {
+		StringBuilder result = new StringBuilder();
+		describe(filter, result);
+		return result.toString();
+	}
+	
+	private static void describe(ISignalFilter filter, StringBuilder result) {
+		if (filter instanceof Profiler.Stage) {
+			describe(((Profiler.Stage)filter).getFilter(), result);
+			return;
+		}
+		
+		result.append(filter.getClass().getName());
+		
+		if (filter instanceof CompositeFilter) {
+			result.append('(');
+			String separator = "";
+			for (ISignalFilter child : ((CompositeFilter)filter).getChildren()) {
+				result.append(separator);
+				describe(child, result);
+				separator = ",";
+			}
+			
+			result.append(')');
+			return;
+		}
+		
+		result.append('{');
+		String separator = "";
+		for (Field field : getParameters(filter.getClass())) {
+			try {
+				field.setAccessible(true);
+				result.append(separator).append(field.getName()).append('=').append(field.get(filter));
+				separator = ",";
+			}
+			catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		
+		result.append('}');
+	}
+	
+	/**
+	 * @return	Final instance fields of primitive, enum or string type, ordered by name
+	 */
+	private static List<Field> getParameters(Class<?> type) {
+		List<Field> result = new ArrayList<Field>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				final int modifiers = field.getModifiers();
+				final Class<?> fieldtype = field.getType();
+				if (!Modifier.isStatic(modifiers) && Modifier.isFinal(modifiers) &&
+					(fieldtype.isPrimitive() || fieldtype.isEnum() || fieldtype == String.class)) {
+					result.add(field);
+				}
+			}
+		}
+		
+		Field[] fields = result.toArray(new Field[result.size()]);
+		Arrays.sort(fields, new Comparator<Field>() {
+			@Override
+			public int compare(Field a, Field b) {
+				int order = a.getName().compareTo(b.getName());
+				return order != 0 ? order : a.getDeclaringClass().getName().compareTo(b.getDeclaringClass().getName());
+			}
+		});
+		
+		return Arrays.asList(fields);
+	}
+}
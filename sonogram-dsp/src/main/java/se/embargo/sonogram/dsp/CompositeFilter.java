@@ -0,0 +1,103 @@
+package se.embargo.sonogram.dsp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CompositeFilter implements ISignalFilter {
+	private List<ISignalFilter> _children = new ArrayList<ISignalFilter>();
+
+	public CompositeFilter(ISignalFilter... filters) {
+		_children.addAll(Arrays.asList(filters));
+	}
+	
+	public CompositeFilter() {}
+	
+	public void add(ISignalFilter filter) {
+		_children.add(filter);
+	}
+	
+	protected List<ISignalFilter> getChildren() {
+		return _children;
+	}
+
+	@Override
+	public void accept(ISignalFilter.Item item) {
+		final int first = item.first, last = item.last;
+		final int prefix = getPrefix(_children);
+		int margin = getReach(this);
+		
+		try {
+			for (int i = 0, il = _children.size(); i < il; i++) {
+				// Stages compute past the gate by the reach of the stages after them
+				ISignalFilter filter = _children.get(i);
+				margin -= getReach(filter);
+				item.first = i <= prefix ? 0 : first;
+				item.last = Math.min(last + margin, item.output.length);
+				filter.accept(item);
+			}
+		}
+		finally {
+			item.first = first;
+			item.last = last;
+		}
+	}
+	
+	/**
+	 * @return	Index of the last child which scans the output from the start of the frame,
+	 * 			the children up to it compute the whole prefix of the gate, or -1 if there's none
+	 */
+	protected static int getPrefix(List<ISignalFilter> children) {
+		for (int i = children.size() - 1; i >= 0; i--) {
+			if (isSequential(children.get(i))) {
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * @return	True if the output of the filter at an index depends on every value before it
+	 */
+	public static boolean isSequential(ISignalFilter filter) {
+		if (filter instanceof ISequentialFilter) {
+			return true;
+		}
+		
+		if (filter instanceof CompositeFilter) {
+			return getPrefix(((CompositeFilter)filter).getChildren()) >= 0;
+		}
+		
+		if (filter instanceof Profiler.Stage) {
+			return isSequential(((Profiler.Stage)filter).getFilter());
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * @return	Number of values past the end of the gate which a filter reads, 
+	 * 			and which the filters before it must compute
+	 */
+	public static int getReach(ISignalFilter filter) {
+		if (filter instanceof IFusableFilter) {
+			return ((IFusableFilter)filter).getReach();
+		}
+		
+		if (filter instanceof CompositeFilter) {
+			int reach = 0;
+			for (ISignalFilter child : ((CompositeFilter)filter).getChildren()) {
+				reach += getReach(child);
+			}
+			
+			return reach;
+		}
+		
+		if (filter instanceof Profiler.Stage) {
+			return getReach(((Profiler.Stage)filter).getFilter());
+		}
+		
+		return 0;
+	}
+}
@@ -0,0 +1,31 @@
+package se.embargo.sonogram.dsp;
+
+public class CrossCorrelationFilter implements ISignalFilter {
+	private final FilterBody _body = new FilterBody();
+	
+	@Override
+	public void accept(Item item) {
+		// Convolve both channels within the range gate
+		Parallel.forRange(_body, item, item.first, Math.min(item.last, item.samplecount - item.operator.length * 2));
+	}
+	
+	private class FilterBody implements IForBody<Item> {
+		@Override
+		public void run(Item item, int i, int last) {
+			final float[] operator = item.operator;
+			final float[] channel0 = item.getChannel(0), channel1 = item.getChannel(1);
+			final float[] matched = item.output;
+			
+			for (; i < last; i++) {
+				// Output is interleaved while the normalized input is planar
+				final float[] channel = (i & 1) == 0 ? channel0 : channel1;
+				float acc = 0;
+				for (int j = 0, jl = operator.length, si = i >> 1; j < jl; j++, si++) {
+					acc += channel[si] * operator[j];
+				}
+				
+				matched[i] = Math.abs(acc);
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package se.embargo.sonogram.dsp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Forms a 2D image from the matched filter output of both channels by looking up
+ * each pixel at its distance from either microphone, on the CPU rather than in
+ * the fragment shaders. Uses the same geometry as the shaders, where the image is
+ * the unit square with the microphones at (ORIGIN, 0.5 -+ baseline / 2) and a unit
+ * of distance spans range samples, but takes the baseline from the frame.
+ *
+ * The sample index of every pixel depends only on the image size, baseline, sample
+ * rate and range, so they're computed once into lookup tables which are rebuilt
+ * when any of them change. Rows are split across the cores.
+ */
+public class DelayAndSumImager {
+	public enum Mode {
+		/**
+		 * Sum of the channels, i.e. delay-and-sum beamforming
+		 */
+		Sum,
+
+		/**
+		 * Product of the channels, as in triangulate_shader.sl
+		 */
+		Product;
+	};
+
+	/**
+	 * Horizontal position of the microphones in the image, as in the shaders
+	 */
+	private static final float ORIGIN = 0.11f;
+
+	private final Mode _mode;
+	private final int _range;
+	private final RenderBody _body = new RenderBody();
+
+	/**
+	 * Lookup tables for the last image size and frame geometry
+	 */
+	private volatile Tables _tables;
+
+	/**
+	 * @param mode	How the channels are combined
+	 * @param range	Number of samples spanned by the width of the image, or 0 for all output of a frame
+	 */
+	public DelayAndSumImager(Mode mode, int range) {
+		_mode = mode;
+		_range = range;
+	}
+
+	public DelayAndSumImager() {
+		this(Mode.Sum, 0);
+	}
+
+	/**
+	 * Renders the filter output of a frame, pixels outside of the range gate are zero
+	 * @param item	Frame with matched filter output and baseline
+	 * @param image	Receives the image
+	 */
+	public void render(ISignalFilter.Item item, Image image) {
+		final int outputcount = item.getChannelLength() - item.operator.length;
+		final int range = _range > 0 ? _range : outputcount;
+
+		Tables tables = _tables;
+		if (tables == null || !tables.matches(image.width, image.height, item.baseline, item.samplerate, range, outputcount)) {
+			tables = new Tables(image.width, image.height, item.baseline, item.samplerate, range, outputcount);
+			_tables = tables;
+		}
+
+		Frame frame = new Frame(item, tables, image, _mode);
+		Parallel.forRange(_body, frame, 0, image.height);
+	}
+
+	/**
+	 * Grayscale image with one value per pixel, stored by rows
+	 */
+	public static class Image {
+		private static final Charset ASCII = Charset.forName("US-ASCII");
+
+		public final int width, height;
+		public final float[] pixels;
+
+		public Image(int width, int height) {
+			this.width = width;
+			this.height = height;
+			this.pixels = new float[width * height];
+		}
+
+		/**
+		 * Writes the image as a binary PGM, with the same log scale as the shaders. Images
+		 * written back to back to the same stream form a valid multi-image PGM.
+		 */
+		public void write(OutputStream os) throws IOException {
+			os.write(("P5\n" + width + " " + height + "\n255\n").getBytes(ASCII));
+
+			byte[] row = new byte[width];
+			for (int y = 0; y < height; y++) {
+				for (int x = 0, pi = y * width; x < width; x++, pi++) {
+					double value = log2(log2(Math.abs(pixels[pi]) + 1.0) + 1.0);
+					row[x] = (byte)Math.round(Math.min(value, 1.0) * 255.0);
+				}
+
+				os.write(row);
+			}
+		}
+
+		private static double log2(double value) {
+			return Math.log(value) / Math.log(2.0);
+		}
+	}
+
+	/**
+	 * Interleaved output index of each pixel for either channel
+	 */
+	private static class Tables {
+		public final int width, height, range, outputcount;
+		public final float baseline, samplerate;
+
+		/**
+		 * Index into the output for channel 0 and 1, or -1 beyond the end of the frame
+		 */
+		public final int[] index0, index1;
+
+		public Tables(int width, int height, float baseline, float samplerate, int range, int outputcount) {
+			this.width = width;
+			this.height = height;
+			this.baseline = baseline;
+			this.samplerate = samplerate;
+			this.range = range;
+			this.outputcount = outputcount;
+
+			index0 = new int[width * height];
+			index1 = new int[width * height];
+
+			// Half of the distance between the microphones, in image units
+			final float micoffset = (baseline / Signals.SPEED) * (samplerate / range) / 2.0f;
+
+			for (int y = 0, pi = 0; y < height; y++) {
+				final float v = (y + 0.5f) / height - 0.5f;
+				final float v0 = v - micoffset, v1 = v + micoffset;
+
+				for (int x = 0; x < width; x++, pi++) {
+					final float u = (x + 0.5f) / width - ORIGIN;
+					index0[pi] = getIndex((float)Math.sqrt(u * u + v0 * v0) * range, 0);
+					index1[pi] = getIndex((float)Math.sqrt(u * u + v1 * v1) * range, 1);
+				}
+			}
+		}
+
+		public boolean matches(int width, int height, float baseline, float samplerate, int range, int outputcount) {
+			return this.width == width && this.height == height && this.baseline == baseline &&
+				this.samplerate == samplerate && this.range == range && this.outputcount == outputcount;
+		}
+
+		private int getIndex(float distance, int channel) {
+			final int sample = (int)distance;
+			return sample < outputcount ? sample * ISignalFilter.Item.CHANNELS + channel : -1;
+		}
+	}
+
+	private static class Frame {
+		public final ISignalFilter.Item item;
+		public final Tables tables;
+		public final Image image;
+		public final Mode mode;
+
+		public Frame(ISignalFilter.Item item, Tables tables, Image image, Mode mode) {
+			this.item = item;
+			this.tables = tables;
+			this.image = image;
+			this.mode = mode;
+		}
+	}
+
+	private static class RenderBody implements IForBody<Frame> {
+		@Override
+		public void run(Frame frame, int it, int last) {
+			final float[] output = frame.item.output, pixels = frame.image.pixels;
+			final int[] index0 = frame.tables.index0, index1 = frame.tables.index1;
+			final int first = frame.item.first, gatelast = frame.item.last;
+			final boolean sum = frame.mode == Mode.Sum;
+
+			for (int pi = it * frame.image.width, pl = last * frame.image.width; pi < pl; pi++) {
+				final int i0 = index0[pi], i1 = index1[pi];
+
+				// Values outside the range gate weren't computed
+				if (i0 < first || i0 >= gatelast || i1 < first || i1 >= gatelast) {
+					pixels[pi] = 0.0f;
+				}
+				else if (sum) {
+					pixels[pi] = output[i0] + output[i1];
+				}
+				else {
+					pixels[pi] = Math.abs(output[i0]) * Math.abs(output[i1]);
+				}
+			}
+		}
+	}
+}
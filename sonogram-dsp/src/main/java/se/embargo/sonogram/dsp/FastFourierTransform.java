@@ -0,0 +1,96 @@
+package se.embargo.sonogram.dsp;
+
+/**
+ * In-place iterative radix-2 complex FFT operating on split real/imaginary arrays.
+ */
+public class FastFourierTransform {
+	private final int _size;
+	private final float[] _cos, _sin;
+	private final int[] _reverse;
+
+	/**
+	 * @param size	Transform length, must be a power of two
+	 */
+	public FastFourierTransform(int size) {
+		if (size < 2 || (size & (size - 1)) != 0) {
+			throw new IllegalArgumentException("Transform size must be a power of two: " + size);
+		}
+
+		_size = size;
+		_cos = new float[size / 2];
+		_sin = new float[size / 2];
+		for (int i = 0; i < size / 2; i++) {
+			double angle = 2.0 * Math.PI * i / size;
+			_cos[i] = (float)Math.cos(angle);
+			_sin[i] = (float)Math.sin(angle);
+		}
+
+		_reverse = new int[size];
+		for (int i = 0, bits = Integer.numberOfTrailingZeros(size); i < size; i++) {
+			_reverse[i] = Integer.reverse(i) >>> (32 - bits);
+		}
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Forward transform, X[k] = sum(x[n] * exp(-2*pi*i*k*n/N))
+	 */
+	public void forward(float[] re, float[] im) {
+		transform(re, im, -1.0f);
+	}
+
+	/**
+	 * Unscaled inverse transform, the result must be divided by size() to recover the input
+	 */
+	public void inverse(float[] re, float[] im) {
+		transform(re, im, 1.0f);
+	}
+
+	/**
+	 * @return	The smallest power of two that is greater than or equal to value
+	 */
+	public static int ceilPowerOfTwo(int value) {
+		int result = Integer.highestOneBit(Math.max(value, 1));
+		return result < value ? result << 1 : result;
+	}
+
+	private void transform(final float[] re, final float[] im, final float sign) {
+		final int size = _size;
+		final int[] reverse = _reverse;
+		final float[] cos = _cos, sin = _sin;
+
+		// Bit reversal permutation
+		for (int i = 0; i < size; i++) {
+			int j = reverse[i];
+			if (i < j) {
+				float tr = re[i];
+				re[i] = re[j];
+				re[j] = tr;
+
+				float ti = im[i];
+				im[i] = im[j];
+				im[j] = ti;
+			}
+		}
+
+		// Butterflies
+		for (int half = 1, stride = size / 2; half < size; half <<= 1, stride >>= 1) {
+			for (int k = 0, t = 0; k < half; k++, t += stride) {
+				final float wr = cos[t], wi = sign * sin[t];
+
+				for (int i = k; i < size; i += half << 1) {
+					final int j = i + half;
+					final float xr = re[j] * wr - im[j] * wi;
+					final float xi = re[j] * wi + im[j] * wr;
+					re[j] = re[i] - xr;
+					im[j] = im[i] - xi;
+					re[i] += xr;
+					im[i] += xi;
+				}
+			}
+		}
+	}
+}
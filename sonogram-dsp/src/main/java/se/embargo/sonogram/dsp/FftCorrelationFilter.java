@@ -0,0 +1,112 @@
+package se.embargo.sonogram.dsp;
+
+/**
+ * Matched filter computing the same output as CrossCorrelationFilter using
+ * FFT based overlap-save block convolution. Both channels are packed into a
+ * single complex transform, left channel as real and right channel as imaginary
+ * part, which works since the operator is real valued.
+ *
+ * The output agrees with CrossCorrelationFilter within an absolute error of
+ * about 1e-5 * sum(abs(operator)) for full scale input, i.e. well below the
+ * quantization noise of 16-bit samples.
+ */
+public class FftCorrelationFilter implements ISignalFilter {
+	private final FilterBody _body = new FilterBody();
+	private volatile Plan _plan;
+
+	private final ThreadLocal<float[][]> _scratch = new ThreadLocal<float[][]>() {
+		@Override
+		protected float[][] initialValue() {
+			return new float[2][0];
+		}
+	};
+
+	@Override
+	public void accept(Item item) {
+		Plan plan = getPlan(item.operator);
+
+		// Blocks covering the output samples per channel within the range gate
+		int count = Math.min(item.getChannelLength() - item.operator.length, (item.last + 1) / 2);
+		int first = item.first / 2 / plan.hop;
+		int blocks = (count + plan.hop - 1) / plan.hop;
+		Parallel.forRange(_body, item, first, blocks);
+	}
+
+	private Plan getPlan(float[] operator) {
+		Plan plan = _plan;
+		if (plan == null || plan.operator != operator) {
+			plan = new Plan(operator);
+			_plan = plan;
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Operator spectrum and overlap-save block layout for a given operator
+	 */
+	private static class Plan {
+		public final float[] operator;
+		public final Operator.Spectrum spectrum;
+		public final int hop;
+
+		public Plan(float[] operator) {
+			int size = FastFourierTransform.ceilPowerOfTwo(operator.length * 2);
+			this.operator = operator;
+			this.spectrum = Operator.get(operator).getSpectrum(size);
+			this.hop = size - operator.length + 1;
+		}
+	}
+
+	private class FilterBody implements IForBody<Item> {
+		@Override
+		public void run(Item item, int it, int last) {
+			final Plan plan = getPlan(item.operator);
+			final FastFourierTransform fft = plan.spectrum.fft;
+			final int size = fft.size(), hop = plan.hop;
+			final float[] hre = plan.spectrum.re, him = plan.spectrum.im;
+			final float[] channel0 = item.getChannel(0), channel1 = item.getChannel(1);
+			final float[] matched = item.output;
+			final int inputcount = item.getChannelLength();
+			final int outputcount = inputcount - item.operator.length;
+
+			float[][] scratch = _scratch.get();
+			if (scratch[0].length != size) {
+				scratch[0] = new float[size];
+				scratch[1] = new float[size];
+			}
+
+			final float[] re = scratch[0], im = scratch[1];
+
+			for (; it < last; it++) {
+				// Copy the input block, zero padding past the end of the frame
+				int first = it * hop;
+				int available = Math.min(size, inputcount - first);
+				System.arraycopy(channel0, first, re, 0, available);
+				System.arraycopy(channel1, first, im, 0, available);
+
+				for (int i = available; i < size; i++) {
+					re[i] = 0.0f;
+					im[i] = 0.0f;
+				}
+
+				// Multiply by the conjugate operator spectrum
+				fft.forward(re, im);
+				for (int i = 0; i < size; i++) {
+					float xr = re[i], xi = im[i];
+					re[i] = xr * hre[i] - xi * him[i];
+					im[i] = xr * him[i] + xi * hre[i];
+				}
+
+				fft.inverse(re, im);
+
+				// Only the first hop outputs of each block are free from circular wrap around
+				int count = Math.min(hop, outputcount - first);
+				for (int i = 0, oi = first * 2; i < count; i++, oi += 2) {
+					matched[oi] = Math.abs(re[i]);
+					matched[oi + 1] = Math.abs(im[i]);
+				}
+			}
+		}
+	}
+}
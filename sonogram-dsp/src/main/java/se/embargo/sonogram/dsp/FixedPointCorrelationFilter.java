@@ -0,0 +1,125 @@
+package se.embargo.sonogram.dsp;
+
+/**
+ * Matched filter which correlates the raw 16-bit samples with the Q15 operator
+ * from Operator.getFixedPoint() in integer arithmetic, and converts to float once
+ * per output. The samples are read as captured, so the frame doesn't need to be
+ * deinterleaved and nothing is converted to float inside the loop.
+ *
+ * The integer sum is exact, so the only difference from CrossCorrelationFilter
+ * comes from rounding the operator to Q15, at most half a step of 1/32767 per tap.
+ * For samples x[i] normalized to [-1.0, 1.0] the output therefore agrees with
+ * CrossCorrelationFilter within sum(abs(x[i])) / 65534 plus the float rounding of
+ * the reference, at most operator.length / 65534 for full scale input.
+ */
+public class FixedPointCorrelationFilter implements ISignalFilter {
+	/**
+	 * Number of outputs computed at once in registers
+	 */
+	private static final int GROUP = 4;
+
+	/**
+	 * Scales the products of Q15 taps and 16-bit samples to normalized units
+	 */
+	private static final float SCALE = 1.0f / ((float)Short.MAX_VALUE * Short.MAX_VALUE);
+
+	private final FilterBody _body = new FilterBody();
+
+	/**
+	 * Copy of the samples of items read from a memory-mapped recording
+	 */
+	private final ThreadLocal<short[]> _samples = new ThreadLocal<short[]>() {
+		@Override
+		protected short[] initialValue() {
+			return new short[0];
+		}
+	};
+
+	@Override
+	public void accept(Item item) {
+		// Outputs of each channel within the range gate, the gate is aligned to channel pairs
+		int first = item.first / 2, last = Math.min(item.last, item.samplecount - item.operator.length * 2) / 2;
+		if (first >= last) {
+			return;
+		}
+
+		Frame frame = new Frame(item, Operator.get(item.operator).getFixedPoint());
+		if (item.buffer != null) {
+			short[] samples = _samples.get();
+			if (samples.length < item.samplecount) {
+				samples = new short[item.samplecount];
+				_samples.set(samples);
+			}
+
+			item.copySamples(samples, 0);
+			frame.samples = samples;
+			frame.offset = 0;
+		}
+
+		// Each index is a group of outputs for both channels
+		frame.first = first;
+		frame.last = last;
+		Parallel.forRange(_body, frame, 0, (last - first + GROUP - 1) / GROUP);
+	}
+
+	private static class Frame {
+		public final Item item;
+		public final short[] operator;
+		public short[] samples;
+		public int offset, first, last;
+
+		public Frame(Item item, short[] operator) {
+			this.item = item;
+			this.operator = operator;
+			this.samples = item.samples;
+			this.offset = item.offset;
+		}
+	}
+
+	private static class FilterBody implements IForBody<Frame> {
+		@Override
+		public void run(Frame frame, int it, int last) {
+			final short[] operator = frame.operator, samples = frame.samples;
+			final float[] matched = frame.item.output;
+			final int taps = operator.length;
+			final int stride = Item.CHANNELS;
+
+			for (; it < last; it++) {
+				final int first = frame.first + it * GROUP;
+				final int count = Math.min(GROUP, frame.last - first);
+
+				for (int c = 0; c < Item.CHANNELS; c++) {
+					final int base = frame.offset + first * stride + c;
+
+					if (count == GROUP) {
+						long acc0 = 0, acc1 = 0, acc2 = 0, acc3 = 0;
+						for (int j = 0, si = base; j < taps; j++, si += stride) {
+							final int tap = operator[j];
+							acc0 += samples[si] * tap;
+							acc1 += samples[si + stride] * tap;
+							acc2 += samples[si + stride * 2] * tap;
+							acc3 += samples[si + stride * 3] * tap;
+						}
+
+						final int oi = first * stride + c;
+						matched[oi] = Math.abs(acc0 * SCALE);
+						matched[oi + stride] = Math.abs(acc1 * SCALE);
+						matched[oi + stride * 2] = Math.abs(acc2 * SCALE);
+						matched[oi + stride * 3] = Math.abs(acc3 * SCALE);
+					}
+					else {
+						// Remaining outputs at the end of the range
+						for (int i = 0; i < count; i++) {
+							long acc = 0;
+							for (int j = 0, si = base + i * stride; j < taps; j++, si += stride) {
+								acc += samples[si] * operator[j];
+							}
+
+							matched[(first + i) * stride + c] = Math.abs(acc * SCALE);
+						}
+					}
+				}
+			}
+		}
+	}
+}
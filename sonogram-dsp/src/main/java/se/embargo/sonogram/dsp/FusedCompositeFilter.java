@@ -0,0 +1,95 @@
+package se.embargo.sonogram.dsp;
+
+import java.util.List;
+
+/**
+ * Composite filter which runs consecutive IFusableFilter children as a single
+ * pass over item.output. The output is processed in tiles that stay in cache,
+ * with each stage trailing the one before it by its reach so that every stage
+ * sees exactly the values it would have seen when run as a separate sweep. 
+ * The result is bit-identical to CompositeFilter.
+ */
+public class FusedCompositeFilter extends CompositeFilter {
+	/**
+	 * Number of output elements processed by each stage before moving to the next stage
+	 */
+	private static final int TILESIZE = 2048;
+	
+	public FusedCompositeFilter(ISignalFilter... filters) {
+		super(filters);
+	}
+	
+	public FusedCompositeFilter() {}
+
+	@Override
+	public void accept(ISignalFilter.Item item) {
+		final List<ISignalFilter> children = getChildren();
+		final int first = item.first, last = item.last;
+		final int prefix = getPrefix(children);
+		
+		// Reach of the stages after the current one
+		int margin = getReach(this);
+		
+		try {
+			for (int i = 0, il = children.size(); i < il; ) {
+				// Find the run of fusable stages starting at this child
+				int end = i;
+				while (end < il && children.get(end) instanceof IFusableFilter) {
+					end++;
+				}
+				
+				// Stages up to the last sequential one compute the whole prefix of the gate
+				item.first = i <= prefix ? 0 : first;
+				
+				if (end - i >= 2) {
+					for (int j = i; j < end; j++) {
+						margin -= getReach(children.get(j));
+					}
+					
+					fuse(item, children, i, end, last + margin);
+					i = end;
+				}
+				else {
+					ISignalFilter child = children.get(i);
+					margin -= getReach(child);
+					item.last = Math.min(last + margin, item.output.length);
+					child.accept(item);
+					i++;
+				}
+			}
+		}
+		finally {
+			item.first = first;
+			item.last = last;
+		}
+	}
+	
+	/**
+	 * @param end	End of the range the last stage of the run must compute
+	 */
+	private static void fuse(ISignalFilter.Item item, List<ISignalFilter> children, int first, int last, int end) {
+		final int length = item.output.length, start = item.first;
+		
+		// Total lag of the last stage behind the first one
+		int lag = 0;
+		for (int i = first + 1; i < last; i++) {
+			lag += ((IFusableFilter)children.get(i)).getReach();
+		}
+		
+		for (int tile = start; tile < end + lag; tile += TILESIZE) {
+			// Each stage trails the previous one by its own reach, and computes that much further
+			for (int i = first, offset = 0; i < last; i++) {
+				IFusableFilter stage = (IFusableFilter)children.get(i);
+				if (i > first) {
+					offset += stage.getReach();
+				}
+				
+				int lo = tile - offset, hi = tile + TILESIZE - offset;
+				int stageend = Math.min(end + lag - offset, length);
+				if (hi > start && lo < stageend) {
+					stage.accept(item, Math.max(lo, start), Math.min(hi, stageend));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package se.embargo.sonogram.dsp;
+
+/**
+ * Loop body executed by Parallel.forRange()
+ */
+public interface IForBody<T> {
+	/**
+	 * Processes the indices [it, last)
+	 */
+	void run(T item, int it, int last);
+}
@@ -0,0 +1,19 @@
+package se.embargo.sonogram.dsp;
+
+/**
+ * Filter which processes item.output in place in a single forward sweep,
+ * where the step at index i only reads and writes output[i .. i + getReach()]. 
+ * Runs of such filters can be fused into one cache resident pass by 
+ * FusedCompositeFilter without changing the result.
+ */
+public interface IFusableFilter extends ISignalFilter {
+	/**
+	 * @return	Number of elements past the current index that a step reads or writes
+	 */
+	int getReach();
+	
+	/**
+	 * Applies the steps of this filter whose index falls within [first, last)
+	 */
+	void accept(Item item, int first, int last);
+}
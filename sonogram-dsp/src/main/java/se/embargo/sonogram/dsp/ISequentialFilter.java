@@ -0,0 +1,9 @@
+package se.embargo.sonogram.dsp;
+
+/**
+ * Filter which scans item.output from the start of the frame, so that its value
+ * at an index depends on every value before it. Composite filters have it and the
+ * stages in front of it compute the whole prefix up to the end of the range gate,
+ * which keeps the values inside the gate identical to an ungated run.
+ */
+public interface ISequentialFilter extends ISignalFilter {}
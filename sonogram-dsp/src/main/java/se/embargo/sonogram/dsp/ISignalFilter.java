@@ -0,0 +1,219 @@
+package se.embargo.sonogram.dsp;
+
+import java.nio.ShortBuffer;
+
+public interface ISignalFilter {
+	public class Item {
+		/**
+		 * Number of interleaved channels in samples
+		 */
+		public static final int CHANNELS = 2;
+
+		public final float samplerate;
+		public float[] operator;
+		public Bounds window, canvas, resolution;
+		public float[] output;
+		public float maxvalue;
+
+		/**
+		 * Range gate as the interleaved output values [first, last) that are visible in
+		 * the window. Filters only need to compute these, values outside are undefined.
+		 */
+		public int first, last;
+
+		/**
+		 * Monotonic frame number assigned when the frame is handed to a worker, consecutive
+		 * for frames that are processed, and capture time from System.nanoTime()
+		 */
+		public long sequence, timestamp;
+
+		/**
+		 * Distance between the microphones in meters when the frame was captured
+		 */
+		public float baseline;
+
+		/**
+		 * Identity of the recording the frame was read from and its index in the recording,
+		 * or null and -1 for live input. Used to cache the output of filter stages.
+		 */
+		public String source;
+		public int frame = -1;
+
+		/**
+		 * Interleaved samples, valid from samples[offset] to samples[offset + samplecount - 1]
+		 */
+		public short[] samples;
+		public int offset;
+		public final int samplecount;
+
+		/**
+		 * Interleaved samples as a read-only view of a memory-mapped recording, used instead 
+		 * of samples when set. Index 0 of the view is the first sample of the frame.
+		 */
+		public ShortBuffer buffer;
+
+		/**
+		 * Deinterleaved samples normalized into [-1.0, 1.0], one contiguous array per channel
+		 */
+		private final float[][] _channels;
+
+		public Item(float samplerate, int samplecount) {
+			this.samplerate = samplerate;
+			this.samplecount = samplecount;
+			this.output = new float[samplecount];
+			this.last = samplecount;
+
+			_channels = new float[CHANNELS][samplecount / CHANNELS];
+		}
+
+		/**
+		 * Initializes this item with a private copy of the given samples.
+		 */
+		public void init(float[] operator, short[] samples, Bounds window, Bounds canvas, Bounds resolution) {
+			if (this.samples == null || this.samples.length != samplecount) {
+				this.samples = new short[samplecount];
+			}
+
+			System.arraycopy(samples, 0, this.samples, 0, samplecount);
+			init(operator, this.samples, 0, window, canvas, resolution);
+		}
+
+		/**
+		 * Initializes this item as a view of samplecount samples in a shared buffer,
+		 * the buffer region must not be modified until the item has been processed.
+		 */
+		public void init(float[] operator, short[] buffer, int offset, Bounds window, Bounds canvas, Bounds resolution) {
+			this.operator = operator;
+			this.samples = buffer;
+			this.offset = offset;
+			this.buffer = null;
+			this.window = window;
+			this.canvas = canvas;
+			this.resolution = resolution;
+			this.source = null;
+			setGate(window, resolution);
+			this.frame = -1;
+		}
+
+		/**
+		 * Initializes this item as a view of samplecount samples in a memory-mapped recording, 
+		 * the samples are read directly from the buffer without being copied.
+		 */
+		public void init(float[] operator, ShortBuffer buffer, Bounds window, Bounds canvas, Bounds resolution) {
+			init(operator, (short[])null, 0, window, canvas, resolution);
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Gates the output to the horizontal extent of the window, where the width of the 
+		 * resolution spans the whole output. Both ends are aligned to whole channel pairs.
+		 */
+		public void setGate(Bounds window, Bounds resolution) {
+			if (window == null || resolution == null || resolution.width() <= 0) {
+				first = 0;
+				last = samplecount;
+				return;
+			}
+
+			final long width = resolution.width();
+			int first = (int)((long)(window.left - resolution.left) * samplecount / width);
+			int last = (int)(((long)(window.right - resolution.left) * samplecount + width - 1) / width);
+			first = Math.max(0, Math.min(first, samplecount)) & ~(CHANNELS - 1);
+			last = Math.max(first, Math.min((last + CHANNELS - 1) & ~(CHANNELS - 1), samplecount));
+			this.first = first;
+			this.last = last;
+		}
+
+		/**
+		 * Makes this item a private copy of another item with the same samplecount,
+		 * including its samples, channels and output
+		 */
+		public void copyFrom(Item item) {
+			if (samples == null || samples.length != samplecount) {
+				samples = new short[samplecount];
+			}
+
+			item.copySamples(samples, 0);
+			offset = 0;
+			buffer = null;
+
+			operator = item.operator;
+			window = item.window;
+			canvas = item.canvas;
+			resolution = item.resolution;
+			maxvalue = item.maxvalue;
+			first = item.first;
+			last = item.last;
+			sequence = item.sequence;
+			timestamp = item.timestamp;
+			baseline = item.baseline;
+			source = item.source;
+			frame = item.frame;
+
+			System.arraycopy(item.output, 0, output, 0, samplecount);
+			for (int c = 0; c < CHANNELS; c++) {
+				System.arraycopy(item._channels[c], 0, _channels[c], 0, _channels[c].length);
+			}
+		}
+
+		/**
+		 * Copies the interleaved samples regardless of where they're stored
+		 */
+		public void copySamples(short[] target, int targetoffset) {
+			if (buffer != null) {
+				ShortBuffer source = buffer.duplicate();
+				source.position(0);
+				source.get(target, targetoffset, samplecount);
+			}
+			else {
+				System.arraycopy(samples, offset, target, targetoffset, samplecount);
+			}
+		}
+
+		/**
+		 * @param channel	Channel index in [0, CHANNELS)
+		 * @return			Normalized samples for the given channel
+		 */
+		public float[] getChannel(int channel) {
+			return _channels[channel];
+		}
+
+		/**
+		 * @return	Number of samples in each channel
+		 */
+		public int getChannelLength() {
+			return _channels[0].length;
+		}
+
+		/**
+		 * Converts the interleaved samples into the planar channels, must be called
+		 * by the sonar before the item is passed to the filters.
+		 */
+		public void deinterleave() {
+			// Divisor to get samples into [-1.0, 1.0] range
+			final float divisor = (float)Short.MAX_VALUE;
+			final short[] samples = this.samples;
+
+			if (buffer != null) {
+				final ShortBuffer buffer = this.buffer;
+				for (int c = 0; c < CHANNELS; c++) {
+					final float[] channel = _channels[c];
+					for (int i = 0, si = c; i < channel.length; i++, si += CHANNELS) {
+						channel[i] = (float)buffer.get(si) / divisor;
+					}
+				}
+
+				return;
+			}
+
+			for (int c = 0; c < CHANNELS; c++) {
+				final float[] channel = _channels[c];
+				for (int i = 0, si = offset + c; i < channel.length; i++, si += CHANNELS) {
+					channel[i] = (float)samples[si] / divisor;
+				}
+			}
+		}
+	}
+
+	void accept(Item item);
+}
@@ -0,0 +1,129 @@
+package se.embargo.sonogram.dsp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds. Buckets are spaced 
+ * logarithmically with four buckets per power of two, giving percentiles 
+ * within 25% of the true value. Recording never allocates or blocks.
+ */
+public class LatencyHistogram {
+	private static final int SUBBUCKETS = 4, SUBBITS = 2;
+	private static final int BUCKETS = SUBBUCKETS + (63 - SUBBITS) * SUBBUCKETS;
+	
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _max = new AtomicLong();
+	
+	/**
+	 * @param duration	Duration in nanoseconds
+	 */
+	public void record(long duration) {
+		if (duration < 0) {
+			duration = 0;
+		}
+		
+		_counts.incrementAndGet(index(duration));
+		
+		for (long max = _max.get(); duration > max; max = _max.get()) {
+			if (_max.compareAndSet(max, duration)) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Clears all recorded durations, concurrently recorded values may be lost
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			_counts.set(i, 0);
+		}
+		
+		_max.set(0);
+	}
+	
+	/**
+	 * @return	Copy of the current state of the histogram
+	 */
+	public Snapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = _counts.get(i);
+		}
+		
+		return new Snapshot(counts, _max.get());
+	}
+	
+	private static int index(long value) {
+		if (value < SUBBUCKETS) {
+			return (int)value;
+		}
+		
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (magnitude - SUBBITS)) & (SUBBUCKETS - 1);
+		return SUBBUCKETS + (magnitude - SUBBITS) * SUBBUCKETS + sub;
+	}
+	
+	private static long lowerBound(int index) {
+		if (index < SUBBUCKETS) {
+			return index;
+		}
+		
+		int magnitude = (index - SUBBUCKETS) / SUBBUCKETS + SUBBITS;
+		int sub = (index - SUBBUCKETS) % SUBBUCKETS;
+		return (long)(SUBBUCKETS + sub) << (magnitude - SUBBITS);
+	}
+	
+	public static class Snapshot {
+		private final long[] _counts;
+		private final long _count, _max;
+		
+		private Snapshot(long[] counts, long max) {
+			long count = 0;
+			for (long c : counts) {
+				count += c;
+			}
+			
+			_counts = counts;
+			_count = count;
+			_max = max;
+		}
+		
+		/**
+		 * @return	Number of recorded durations
+		 */
+		public long getCount() {
+			return _count;
+		}
+		
+		/**
+		 * @return	Longest recorded duration in nanoseconds
+		 */
+		public long getMax() {
+			return _max;
+		}
+		
+		/**
+		 * @param percentile	Percentile in [0, 100]
+		 * @return				Upper bound of the bucket containing the percentile in nanoseconds
+		 */
+		public long getPercentile(double percentile) {
+			if (_count == 0) {
+				return 0;
+			}
+			
+			long rank = Math.max(1, (long)Math.ceil(percentile / 100.0 * _count));
+			long sum = 0;
+			for (int i = 0; i < _counts.length; i++) {
+				sum += _counts[i];
+				if (sum >= rank) {
+					long upper = i + 1 < _counts.length ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+					return Math.min(upper, _max);
+				}
+			}
+			
+			return _max;
+		}
+	}
+}
@@ -15,7 +15,7 @@ public class LeadingEdgeFilter implements ISignalFilter {
 	@Override
 	public void accept(Item item) {
 		final float[] output = item.output;
-		for (int i = output.length - 2 + _offset; i >= 2; i -= _step) {
+		for (int i = item.last - 2 + _offset, il = item.first + 2; i >= il; i -= _step) {
 			output[i] = output[i] * 
 				(float)(Math.pow(Math.max(output[i] - output[i - 2], 0.0f) + 1.0f, 10) - 1.0f)/*
 				(float)(Math.pow(Math.max(output[i] - output[i + 2], 0.0f) + 1.0f, 10) - 1.0f)*/;
@@ -0,0 +1,36 @@
+package se.embargo.sonogram.dsp;
+
+/**
+ * Zeroes values which don't stand out from the running mean and deviation of the
+ * values before them. Each channel is scanned from the start of the frame, with
+ * the mean seeded by its first value, so the result up to the end of the range
+ * gate doesn't depend on where the gate ends.
+ * 
+ * @link	http://stackoverflow.com/questions/22583391/peak-recognition-in-realtime-timeseries-data/22640362#22640362
+ */
+public class MeanPeakDetector implements ISequentialFilter {
+	@Override
+	public void accept(Item item) {
+		final float[] output = item.output;
+		if (item.last >= 2) {
+			apply(output, item.last, 0);
+			apply(output, item.last, 1);
+		}
+	}
+
+	private void apply(final float[] output, int last, int offset) {
+		final float diff = 1.75f;
+		
+		float mean = output[offset], stddev = 0.0f;
+		for (int i = offset; i < last; i += 2) {
+			float sample = output[i];
+			
+			if (output[i] <= mean + diff * stddev) {
+				output[i] = 0.0f;
+			}
+
+			stddev = (stddev + Math.abs(sample - mean)) / 2.0f;
+			mean = (sample + (sample - mean) / 10.0f) / 2.0f;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package se.embargo.sonogram.dsp;
+
+public class MonoFilter implements IFusableFilter {
+	private final int _offset, _step;
+	
+	public MonoFilter(int offset, int step) {
+		_offset = offset;
+		_step = step;
+	}
+
+	public MonoFilter() {
+		this(0, 2);
+	}
+
+	@Override
+	public void accept(Item item) {
+		accept(item, item.first, item.last);
+	}
+	
+	@Override
+	public int getReach() {
+		return 1;
+	}
+
+	@Override
+	public void accept(Item item, int first, int last) {
+		final float[] output = item.output;
+		
+		for (int i = Signals.align(first, _offset, _step), il = Math.min(last, output.length - 1); i < il; i += _step) {
+			output[i + 1] = output[i];
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package se.embargo.sonogram.dsp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Content addressed registry of sonar pulse operators. Each distinct operator
+ * is interned to a canonical array, and data derived from it is computed once
+ * and shared between all filters and sonar sources using the same operator.
+ */
+public class Operator {
+	private static final Map<Key, Operator> _operators = new HashMap<Key, Operator>();
+	private static final Map<float[], Operator> _canonical = new IdentityHashMap<float[], Operator>();
+
+	private final float[] _taps;
+	private final int _hash;
+	private float[] _normalized, _reversed;
+	private short[] _fixedpoint;
+	private Baseband _baseband;
+	private final Map<Integer, Spectrum> _spectrums = new HashMap<Integer, Spectrum>();
+
+	private Operator(float[] taps, int hash) {
+		_taps = taps;
+		_hash = hash;
+	}
+
+	/**
+	 * @param operator	Operator time series
+	 * @return			Canonical array with the same contents as operator
+	 */
+	public static float[] intern(float[] operator) {
+		return get(operator).getTaps();
+	}
+
+	/**
+	 * @param operator	Operator time series, preferably already interned
+	 * @return			Registry entry for the given operator
+	 */
+	public static synchronized Operator get(float[] operator) {
+		Operator result = _canonical.get(operator);
+		if (result == null) {
+			Key key = new Key(operator);
+			result = _operators.get(key);
+
+			if (result == null) {
+				result = new Operator(operator, key.hash);
+				_operators.put(key, result);
+				_canonical.put(operator, result);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return	Canonical operator time series, must not be modified
+	 */
+	public float[] getTaps() {
+		return _taps;
+	}
+
+	/**
+	 * @return	Content hash of the operator
+	 */
+	public int getHash() {
+		return _hash;
+	}
+
+	/**
+	 * @return	Taps scaled by 1/Short.MAX_VALUE for correlating raw 16-bit samples
+	 */
+	public synchronized float[] getNormalized() {
+		if (_normalized == null) {
+			_normalized = new float[_taps.length];
+			for (int i = 0; i < _taps.length; i++) {
+				_normalized[i] = _taps[i] / (float)Short.MAX_VALUE;
+			}
+		}
+
+		return _normalized;
+	}
+
+	/**
+	 * @return	Time reversed taps for use with Signals.convolve()
+	 */
+	public synchronized float[] getReversed() {
+		if (_reversed == null) {
+			_reversed = Signals.reverse(_taps);
+		}
+
+		return _reversed;
+	}
+
+	/**
+	 * @return	Taps quantized to Q15 fixed-point
+	 */
+	public synchronized short[] getFixedPoint() {
+		if (_fixedpoint == null) {
+			_fixedpoint = new short[_taps.length];
+			for (int i = 0; i < _taps.length; i++) {
+				float value = Math.round(_taps[i] * Short.MAX_VALUE);
+				_fixedpoint[i] = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+			}
+		}
+
+		return _fixedpoint;
+	}
+
+	/**
+	 * @return	Operator demodulated to complex baseband at half the sample rate
+	 */
+	public synchronized Baseband getBaseband() {
+		if (_baseband == null) {
+			_baseband = new Baseband(_taps);
+		}
+
+		return _baseband;
+	}
+
+	/**
+	 * @param size	Transform size, a power of two at least as large as the operator
+	 * @return		Spectrum for correlating normalized samples with this operator
+	 */
+	public synchronized Spectrum getSpectrum(int size) {
+		Spectrum result = _spectrums.get(size);
+		if (result == null) {
+			result = new Spectrum(_taps, size);
+			_spectrums.put(size, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Conjugated operator spectrum, with the inverse transform scaling folded in. 
+	 * Multiplying the spectrum of a block of normalized samples by this and 
+	 * inverse transforming yields the correlation directly.
+	 */
+	public static class Spectrum {
+		public final FastFourierTransform fft;
+		public final float[] re, im;
+
+		private Spectrum(float[] taps, int size) {
+			if (size < taps.length) {
+				throw new IllegalArgumentException("Transform size " + size + " is smaller than operator length " + taps.length);
+			}
+
+			this.fft = new FastFourierTransform(size);
+			this.re = new float[size];
+			this.im = new float[size];
+
+			float scale = 1.0f / size;
+			for (int i = 0; i < taps.length; i++) {
+				re[i] = taps[i] * scale;
+			}
+
+			// Conjugate spectrum to correlate rather than convolve
+			fft.forward(re, im);
+			for (int i = 0; i < size; i++) {
+				im[i] = -im[i];
+			}
+		}
+	}
+
+	/**
+	 * Operator mixed down by a quarter of the sample rate and decimated by two with
+	 * Signals.demodulate(), for correlating baseband signals.
+	 */
+	public static class Baseband {
+		public final float[] re, im;
+
+		/**
+		 * Scales the envelope of the baseband correlation to the peak of the full rate correlation
+		 */
+		public final float scale;
+
+		/**
+		 * Conjugated spectrum of the baseband operator for overlap-save correlation, with
+		 * the inverse transform scaling folded in. The transform is twice the operator length.
+		 */
+		public final FastFourierTransform fft;
+		public final float[] spectrumre, spectrumim;
+
+		private Baseband(float[] taps) {
+			final int length = (taps.length + 1) / 2;
+			this.re = new float[length];
+			this.im = new float[length];
+			Signals.demodulate(taps, taps.length, 0, length, re, im);
+
+			double energy = 0.0, baseband = 0.0;
+			for (int i = 0; i < taps.length; i++) {
+				energy += taps[i] * taps[i];
+			}
+
+			for (int i = 0; i < length; i++) {
+				baseband += re[i] * re[i] + im[i] * im[i];
+			}
+
+			this.scale = baseband > 0.0 ? (float)(energy / baseband) : 0.0f;
+
+			final int size = FastFourierTransform.ceilPowerOfTwo(length * 2);
+			this.fft = new FastFourierTransform(size);
+			this.spectrumre = new float[size];
+			this.spectrumim = new float[size];
+
+			final float normalize = 1.0f / size;
+			for (int i = 0; i < length; i++) {
+				spectrumre[i] = re[i] * normalize;
+				spectrumim[i] = im[i] * normalize;
+			}
+
+			// Conjugate spectrum to correlate rather than convolve
+			fft.forward(spectrumre, spectrumim);
+			for (int i = 0; i < size; i++) {
+				spectrumim[i] = -spectrumim[i];
+			}
+		}
+	}
+
+	private static class Key {
+		public final float[] operator;
+		public final int hash;
+
+		public Key(float[] operator) {
+			this.operator = operator;
+			this.hash = Arrays.hashCode(operator);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(operator, ((Key)o).operator);
+		}
+	}
+}
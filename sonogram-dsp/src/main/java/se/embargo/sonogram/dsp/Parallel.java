@@ -0,0 +1,133 @@
+package se.embargo.sonogram.dsp;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Data parallel loops over the available cores. The calling thread takes part
+ * in executing the loop, so nested or concurrent loops can't deadlock even 
+ * when all pool threads are busy.
+ */
+public class Parallel {
+	private static final int CORES = Runtime.getRuntime().availableProcessors();
+	
+	private static final ExecutorService _threadpool = Executors.newFixedThreadPool(Math.max(CORES - 1, 1), new ThreadFactory() {
+		private final AtomicInteger _count = new AtomicInteger();
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Parallel-" + _count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	public static int getNumberOfCores() {
+		return CORES;
+	}
+	
+	/**
+	 * Executes body over [first, last) split into one chunk per core
+	 */
+	public static <T> void forRange(IForBody<T> body, T item, int first, int last) {
+		int count = last - first;
+		if (count <= 0) {
+			return;
+		}
+		
+		int chunks = Math.min(CORES, count);
+		if (chunks == 1) {
+			body.run(item, first, last);
+			return;
+		}
+		
+		Loop<T> loop = new Loop<T>(body, item, first, last, chunks);
+		for (int i = 1; i < chunks; i++) {
+			_threadpool.execute(loop);
+		}
+		
+		loop.run();
+		loop.await();
+	}
+	
+	private static class Loop<T> implements Runnable {
+		private final IForBody<T> _body;
+		private final T _item;
+		private final int _first, _last, _chunks;
+		private final AtomicInteger _next = new AtomicInteger();
+		private int _completed = 0;
+		
+		/**
+		 * First failure of a chunk, rethrown by await()
+		 */
+		private Throwable _error;
+		
+		public Loop(IForBody<T> body, T item, int first, int last, int chunks) {
+			_body = body;
+			_item = item;
+			_first = first;
+			_last = last;
+			_chunks = chunks;
+		}
+		
+		@Override
+		public void run() {
+			// Claim chunks until all have been started
+			for (int chunk = _next.getAndIncrement(); chunk < _chunks; chunk = _next.getAndIncrement()) {
+				long count = _last - _first;
+				int it = _first + (int)(count * chunk / _chunks);
+				int last = _first + (int)(count * (chunk + 1) / _chunks);
+				Throwable error = null;
+				
+				try {
+					_body.run(_item, it, last);
+				}
+				catch (Throwable e) {
+					error = e;
+				}
+				finally {
+					// Errors must complete the chunk too, or await() would never return
+					synchronized (this) {
+						if (error != null && _error == null) {
+							_error = error;
+						}
+						
+						if (++_completed == _chunks) {
+							notifyAll();
+						}
+					}
+				}
+			}
+		}
+		
+		public synchronized void await() {
+			boolean interrupted = false;
+			while (_completed < _chunks) {
+				try {
+					wait();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			
+			if (_error instanceof RuntimeException) {
+				throw (RuntimeException)_error;
+			}
+			
+			if (_error instanceof Error) {
+				throw (Error)_error;
+			}
+			
+			if (_error != null) {
+				throw new RuntimeException(_error);
+			}
+		}
+	}
+}
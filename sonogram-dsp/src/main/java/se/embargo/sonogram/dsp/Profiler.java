@@ -0,0 +1,111 @@
+package se.embargo.sonogram.dsp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Instruments filter chains with per stage timing. Every stage records its
+ * wall time into a LatencyHistogram, which can be queried in-process or 
+ * formatted into a report.
+ */
+public class Profiler {
+	private final List<Stage> _stages = new ArrayList<Stage>();
+	
+	/**
+	 * Wraps a filter, and each child of plain composite filters, in timing stages.
+	 * @param filter	Filter to instrument
+	 * @return			Instrumented filter to use in place of the original
+	 */
+	public ISignalFilter instrument(ISignalFilter filter) {
+		return instrument(filter, "");
+	}
+	
+	/**
+	 * @return	Stages in the order they were instrumented
+	 */
+	public synchronized List<Stage> getStages() {
+		return new ArrayList<Stage>(_stages);
+	}
+	
+	/**
+	 * Clears the histograms of all stages
+	 */
+	public synchronized void reset() {
+		for (Stage stage : _stages) {
+			stage.getHistogram().reset();
+		}
+	}
+	
+	/**
+	 * @return	One line per stage with count and p50/p99/max latencies in milliseconds
+	 */
+	public String report() {
+		StringBuilder result = new StringBuilder();
+		for (Stage stage : getStages()) {
+			LatencyHistogram.Snapshot snapshot = stage.getHistogram().snapshot();
+			result.append(String.format(Locale.US, "%-40s n=%d p50=%.2fms p99=%.2fms max=%.2fms\n", 
+				stage.getName(), snapshot.getCount(), 
+				snapshot.getPercentile(50) / 1e6, snapshot.getPercentile(99) / 1e6, snapshot.getMax() / 1e6));
+		}
+		
+		return result.toString();
+	}
+	
+	private ISignalFilter instrument(ISignalFilter filter, String path) {
+		String name = path + filter.getClass().getSimpleName();
+		
+		// Fused composites are timed as a whole since wrapping their children would prevent fusion
+		if (filter.getClass() == CompositeFilter.class) {
+			List<ISignalFilter> children = ((CompositeFilter)filter).getChildren();
+			CompositeFilter composite = new CompositeFilter();
+			
+			for (int i = 0; i < children.size(); i++) {
+				composite.add(instrument(children.get(i), name + "/" + i + "."));
+			}
+			
+			filter = composite;
+		}
+		
+		Stage stage = new Stage(name, filter);
+		synchronized (this) {
+			_stages.add(stage);
+		}
+		
+		return stage;
+	}
+	
+	public static class Stage implements ISignalFilter {
+		private final String _name;
+		private final ISignalFilter _filter;
+		private final LatencyHistogram _histogram = new LatencyHistogram();
+		
+		public Stage(String name, ISignalFilter filter) {
+			_name = name;
+			_filter = filter;
+		}
+		
+		public String getName() {
+			return _name;
+		}
+		
+		public ISignalFilter getFilter() {
+			return _filter;
+		}
+		
+		public LatencyHistogram getHistogram() {
+			return _histogram;
+		}
+		
+		@Override
+		public void accept(Item item) {
+			long ts = System.nanoTime();
+			try {
+				_filter.accept(item);
+			}
+			finally {
+				_histogram.record(System.nanoTime() - ts);
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package se.embargo.sonogram.dsp;
+
+import java.util.Arrays;
+
+/**
+ * Integrates the last window frames to pick weak echoes out of the noise. The sum
+ * is kept running per sample, adding the newest frame and subtracting the one that
+ * leaves the window, so the cost per frame doesn't depend on the window length.
+ * Frames are kept in a ring of generations with each frame contiguous, and the
+ * window can be changed up to the capacity of the ring without reallocating.
+ *
+ * Coherent integration averages the normalized input channels before the matched
+ * filter and has to come before it in the chain. Since correlation is linear this
+ * equals averaging the signed correlation, so echoes add up in phase while noise
+ * partially cancels. It needs a matched filter which reads the channels, which
+ * rules out FixedPointCorrelationFilter. Incoherent integration averages the output of the
+ * filters before it, e.g. the magnitude of the correlation.
+ *
+ * Every value is integrated regardless of the range gate, since skipping values
+ * would leave their running sums out of step with the ring. The output depends on
+ * earlier frames, so the source of the item is cleared to keep it out of OutputCache.
+ */
+public class PulseIntegrator implements ISignalFilter {
+	public enum Mode {
+		/**
+		 * Average of the input channels, before the matched filter takes the magnitude
+		 */
+		Coherent,
+
+		/**
+		 * Average of the filter output
+		 */
+		Incoherent;
+	};
+
+	private final Mode _mode;
+	private final int _capacity;
+	private int _window;
+
+	/**
+	 * Index of the generation written by the next frame
+	 */
+	private int _generation = 0;
+
+	/**
+	 * Number of values in a frame
+	 */
+	private int _length = -1;
+
+	/**
+	 * The last capacity frames, one after another
+	 */
+	private float[] _history;
+
+	/**
+	 * Sum of each value over the last window frames
+	 */
+	private double[] _sums;
+
+	/**
+	 * @param mode		Whether to integrate the input or the output
+	 * @param window	Number of frames to integrate
+	 * @param capacity	Maximum window length
+	 */
+	public PulseIntegrator(Mode mode, int window, int capacity) {
+		if (window < 1 || window > capacity) {
+			throw new IllegalArgumentException("Window must be within [1, " + capacity + "]: " + window);
+		}
+
+		_mode = mode;
+		_window = window;
+		_capacity = capacity;
+	}
+
+	public Mode getMode() {
+		return _mode;
+	}
+
+	public synchronized int getWindow() {
+		return _window;
+	}
+
+	/**
+	 * Changes the number of frames integrated, frames already in the ring are kept
+	 * @param window	Number of frames in [1, capacity]
+	 */
+	public synchronized void setWindow(int window) {
+		if (window < 1 || window > _capacity) {
+			throw new IllegalArgumentException("Window must be within [1, " + _capacity + "]: " + window);
+		}
+
+		_window = window;
+		if (_history == null) {
+			return;
+		}
+
+		// Sum up the frames of the new window
+		final float[] history = _history;
+		final double[] sums = _sums;
+		final int length = _length;
+		Arrays.fill(sums, 0.0);
+
+		for (int g = 0; g < window; g++) {
+			final int offset = ((_generation - 1 - g + _capacity) % _capacity) * length;
+			for (int i = 0; i < length; i++) {
+				sums[i] += history[offset + i];
+			}
+		}
+	}
+
+	@Override
+	public synchronized void accept(Item item) {
+		final int channellength = item.getChannelLength();
+		final int length = _mode == Mode.Coherent ? channellength * Item.CHANNELS : item.output.length;
+		if (_length != length) {
+			_length = length;
+			_history = new float[length * _capacity];
+			_sums = new double[length];
+			_generation = 0;
+		}
+
+		final int newest = _generation * length;
+		final int oldest = ((_generation - _window + _capacity) % _capacity) * length;
+
+		if (_mode == Mode.Coherent) {
+			for (int c = 0; c < Item.CHANNELS; c++) {
+				final float[] channel = item.getChannel(c);
+				integrate(channel, channellength, newest + c * channellength, oldest + c * channellength, c * channellength);
+			}
+		}
+		else {
+			integrate(item.output, length, newest, oldest, 0);
+		}
+
+		_generation = (_generation + 1) % _capacity;
+		item.source = null;
+	}
+
+	/**
+	 * Replaces the first count values of signal with their average over the window
+	 * @param newest	Offset of the generation receiving the signal
+	 * @param oldest	Offset of the generation leaving the window
+	 * @param sum		Offset of the running sums of the signal
+	 */
+	private void integrate(float[] signal, int count, int newest, int oldest, int sum) {
+		final float[] history = _history;
+		final double[] sums = _sums;
+		final double scale = 1.0 / _window;
+
+		for (int i = 0, in = newest, io = oldest, is = sum; i < count; i++, in++, io++, is++) {
+			// Read the leaving value first, it's the slot being overwritten when the window is the whole ring
+			final float leaving = history[io], value = signal[i];
+			history[in] = value;
+
+			final double total = sums[is] - leaving + value;
+			sums[is] = total;
+			signal[i] = (float)(total * scale);
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package se.embargo.sonogram.dsp;
+
+import java.util.Arrays;
+
+/**
+ * Delivers items to an order sensitive filter in sequence order. Items are
+ * processed out of order by the thread pool, so a worker holding an item that
+ * is ahead of the sequence copies it into a pending slot and returns right away.
+ * The worker delivering the expected item then delivers the pending items that
+ * follow it.
+ *
+ * Sequences are expected to be consecutive, see FrameScheduler, so a missing item
+ * is still being processed by another worker. When the pending slots are full a 
+ * worker waits for the missing item instead of skipping it. The gap is skipped only
+ * once it has been missing for the timeout, e.g. because a filter in front of this
+ * one failed. Items that arrive after a later item has been delivered are discarded.
+ */
+public class SequencedFilter implements ISignalFilter {
+	/**
+	 * Items this far behind the expected sequence are assumed to come from a restarted sonar
+	 */
+	private static final long RESTART_DISTANCE = 1024;
+
+	/**
+	 * Default time to wait for a missing item in milliseconds
+	 */
+	private static final long TIMEOUT = 1000;
+
+	private final ISignalFilter _filter;
+
+	/**
+	 * Copies of items that arrived ahead of the sequence, indexed by sequence modulo their count
+	 */
+	private final Item[] _slots;
+	private final long[] _pending;
+
+	/**
+	 * Time to wait for a missing item in nanoseconds
+	 */
+	private final long _timeout;
+
+	/**
+	 * Sequence of the next item to deliver
+	 */
+	private long _next = -1;
+
+	/**
+	 * Set while a worker is delivering items
+	 */
+	private boolean _delivering = false;
+
+	/**
+	 * Sequence of the missing item that workers wait for, and when the wait started
+	 */
+	private long _gap = -1, _gapstart;
+
+	/**
+	 * @param filter	Order sensitive filter to deliver items to
+	 * @param capacity	Number of items that may be pending, at least the number of items
+	 * 					being processed at once, e.g. the worker threads plus queue capacity
+	 * 					of the FrameScheduler
+	 * @param timeout	Milliseconds to wait for a missing item before skipping it
+	 */
+	public SequencedFilter(ISignalFilter filter, int capacity, long timeout) {
+		_filter = filter;
+		_slots = new Item[capacity + 1];
+		_pending = new long[capacity + 1];
+		_timeout = timeout * 1000000L;
+		Arrays.fill(_pending, -1);
+	}
+
+	/**
+	 * @param filter	Order sensitive filter to deliver items to
+	 * @param capacity	Number of items that may be pending, at least the number of items
+	 * 					being processed at once
+	 */
+	public SequencedFilter(ISignalFilter filter, int capacity) {
+		this(filter, capacity, TIMEOUT);
+	}
+
+	@Override
+	public void accept(Item item) {
+		boolean handled = false;
+		while (!handled) {
+			Item next;
+			synchronized (this) {
+				final long sequence = item.sequence;
+				if (_next < 0 || (sequence < _next && _next - sequence >= RESTART_DISTANCE)) {
+					reset(sequence);
+				}
+
+				if (sequence < _next) {
+					// A later item was already delivered
+					return;
+				}
+
+				if (!_delivering && sequence == _next) {
+					next = item;
+					handled = true;
+				}
+				else if (sequence - _next < _slots.length - 1) {
+					// The slot of the item being delivered is still in use so one slot is left out
+					deposit(item);
+					handled = true;
+
+					if (_delivering || !isPending(_next)) {
+						return;
+					}
+
+					next = take();
+				}
+				else if (!_delivering && isPending(_next)) {
+					// Deliver the pending items, and then retry this item
+					next = take();
+				}
+				else {
+					// Wait for the items in front of this one to be delivered
+					if (!await(sequence)) {
+						return;
+					}
+
+					continue;
+				}
+
+				advance(next.sequence + 1);
+				_delivering = true;
+			}
+
+			deliver(next);
+		}
+	}
+
+	/**
+	 * Waits for the sequence to move on, or skips the missing item once it has timed out
+	 * @param sequence	Sequence of the item which is waiting
+	 * @return	False if the thread was interrupted
+	 */
+	private boolean await(long sequence) {
+		if (_delivering) {
+			try {
+				wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+
+			return true;
+		}
+
+		final long now = System.nanoTime();
+		if (_gap != _next) {
+			_gap = _next;
+			_gapstart = now;
+		}
+
+		final long remaining = _gapstart + _timeout - now;
+		if (remaining <= 0) {
+			// Give up on the missing item and continue from the first pending one
+			advance(getFirstPending(sequence));
+			return true;
+		}
+
+		try {
+			wait(remaining / 1000000L + 1);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Delivers the item and any pending items that follow it
+	 */
+	private void deliver(Item item) {
+		boolean completed = false;
+		try {
+			while (item != null) {
+				_filter.accept(item);
+
+				synchronized (this) {
+					if (isPending(_next)) {
+						item = take();
+						advance(item.sequence + 1);
+					}
+					else {
+						item = null;
+						_delivering = false;
+						notifyAll();
+					}
+				}
+			}
+
+			completed = true;
+		}
+		finally {
+			if (!completed) {
+				synchronized (this) {
+					_delivering = false;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	private void reset(long sequence) {
+		Arrays.fill(_pending, -1);
+		_gap = -1;
+		advance(sequence);
+	}
+
+	/**
+	 * Moves the expected sequence and wakes up the workers waiting for it
+	 */
+	private void advance(long sequence) {
+		_next = sequence;
+		notifyAll();
+	}
+
+	private boolean isPending(long sequence) {
+		return _pending[(int)(sequence % _slots.length)] == sequence;
+	}
+
+	/**
+	 * @return	Lowest pending sequence, or the given sequence if it's lower or nothing is pending
+	 */
+	private long getFirstPending(long sequence) {
+		long result = sequence;
+		for (int i = 0; i < _pending.length; i++) {
+			if (_pending[i] >= _next && _pending[i] < result) {
+				result = _pending[i];
+			}
+		}
+
+		return result;
+	}
+
+	private void deposit(Item item) {
+		final int index = (int)(item.sequence % _slots.length);
+		Item slot = _slots[index];
+		if (slot == null || slot.samplecount != item.samplecount) {
+			slot = new Item(item.samplerate, item.samplecount);
+			_slots[index] = slot;
+		}
+
+		slot.copyFrom(item);
+		_pending[index] = item.sequence;
+	}
+
+	/**
+	 * @return	Pending item with the next sequence, its slot may be reused once _next has moved on
+	 */
+	private Item take() {
+		final int index = (int)(_next % _slots.length);
+		_pending[index] = -1;
+		return _slots[index];
+	}
+}
@@ -3,7 +3,7 @@ package se.embargo.sonogram.dsp;
 /**
  * @link	http://www.imatest.com/docs/sharpening/
  */
-public class SharpenFilter implements ISignalFilter {
+public class SharpenFilter implements IFusableFilter {
 	private final int _offset, _step;
 	private final float _sharpen = 0.3f;
 	
@@ -18,8 +18,18 @@ public class SharpenFilter implements ISignalFilter {
 
 	@Override
 	public void accept(Item item) {
+		accept(item, item.first, item.last);
+	}
+
+	@Override
+	public int getReach() {
+		return 4;
+	}
+
+	@Override
+	public void accept(Item item, int first, int last) {
 		final float[] output = item.output;
-		for (int i = _offset; i < output.length - 4; i += _step) {
+		for (int i = Signals.align(first, _offset, _step), il = Math.min(last, output.length - 4); i < il; i += _step) {
 			// Lsharp(x) = [ L(x) - (ksharp /2) * (L(x-V) + L(x+V)) ] / (1- ksharp )
 			output[i] = (output[i] - (_sharpen / 2.0f) * (output[i + 2] + output[i + 4])) / (1.0f - _sharpen);
 		}
@@ -6,6 +6,14 @@ public class Signals {
 	 */
 	public static final float SPEED = 340.29f;
 
+	/**
+	 * Low-pass filter used by demodulate(), a Hamming windowed sinc with its cutoff
+	 * at a quarter of the sample rate. Its taps are split into two sets, one for each 
+	 * parity of the baseband sample, with the signs of the mixer folded in.
+	 */
+	private static final int DEMODULATOR_LENGTH = 31, DEMODULATOR_CENTER = DEMODULATOR_LENGTH / 2;
+	private static final float[][] DEMODULATOR = createDemodulator();
+
 	/**
 	 * @param operator	Reversed time series of pulse to match
 	 */
@@ -118,6 +126,78 @@ public class Signals {
 		return toShort(data, amplitude, 1);
 	}
 	
+	/**
+	 * First index of a strided loop that lies at or after a given position
+	 * @param first		Position to start from
+	 * @param offset	Index of the first element of the strided loop
+	 * @param step		Stride of the loop
+	 * @return			Smallest offset + n * step that is >= first, for n >= 0
+	 */
+	public static int align(int first, int offset, int step) {
+		if (first <= offset) {
+			return offset;
+		}
+		
+		return offset + (first - offset + step - 1) / step * step;
+	}
+	
+	/**
+	 * Mixes a real time series down by a quarter of its sample rate, low-pass filters it
+	 * and decimates it by two. The mixer is 1, -i, -1, i so the in-phase part only depends
+	 * on the even samples and the quadrature part on the odd ones, which makes each of them 
+	 * a single polyphase branch of the low-pass filter. Samples outside data are zero.
+	 * @param data		Real time series
+	 * @param length	Number of samples in data
+	 * @param first		First baseband sample to compute
+	 * @param last		End of the baseband samples to compute
+	 * @param re		Receives the in-phase part, where re[m] corresponds to data[2 * m]
+	 * @param im		Receives the quadrature part
+	 */
+	public static void demodulate(float[] data, int length, int first, int last, float[] re, float[] im) {
+		for (int m = first; m < last; m++) {
+			final float[] taps = DEMODULATOR[m & 1];
+			final int offset = 2 * m - DEMODULATOR_CENTER;
+			final int kfirst = Math.max(0, -offset), klast = Math.min(DEMODULATOR_LENGTH, length - offset);
+			
+			// In-phase from the even samples at odd taps, quadrature from the odd samples at even taps
+			float accre = 0.0f, accim = 0.0f;
+			for (int k = align(kfirst, 1, 2); k < klast; k += 2) {
+				accre += taps[k] * data[offset + k];
+			}
+			
+			for (int k = align(kfirst, 0, 2); k < klast; k += 2) {
+				accim += taps[k] * data[offset + k];
+			}
+			
+			re[m] = accre;
+			im[m] = accim;
+		}
+	}
+	
+	private static float[][] createDemodulator() {
+		final float[] lowpass = new float[DEMODULATOR_LENGTH];
+		float sum = 0.0f;
+		for (int k = 0; k < DEMODULATOR_LENGTH; k++) {
+			int t = k - DEMODULATOR_CENTER;
+			double sinc = t == 0 ? 0.5 : Math.sin(Math.PI * 0.5 * t) / (Math.PI * t);
+			double window = 0.54 - 0.46 * Math.cos(2.0 * Math.PI * k / (DEMODULATOR_LENGTH - 1));
+			lowpass[k] = (float)(sinc * window);
+			sum += lowpass[k];
+		}
+		
+		// Sample j is mixed by cos(pi * j / 2) - i * sin(pi * j / 2), where j depends on the tap and the parity of m
+		float[][] result = new float[2][DEMODULATOR_LENGTH];
+		for (int parity = 0; parity < 2; parity++) {
+			for (int k = 0; k < DEMODULATOR_LENGTH; k++) {
+				int j = (2 * parity + k - DEMODULATOR_CENTER) & 3;
+				float mixer = j == 0 ? 1.0f : (j == 1 ? -1.0f : (j == 2 ? -1.0f : 1.0f));
+				result[parity][k] = lowpass[k] / sum * mixer;
+			}
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * Reverses a time series
 	 * @param data	Time series to reverse
@@ -1,6 +1,6 @@
 package se.embargo.sonogram.dsp;
 
-public class SmoothenFilter implements ISignalFilter {
+public class SmoothenFilter implements IFusableFilter {
 	private final int _offset, _step;
 	
 	public SmoothenFilter(int offset, int step) {
@@ -14,8 +14,18 @@ public class SmoothenFilter implements ISignalFilter {
 	
 	@Override
 	public void accept(Item item) {
+		accept(item, item.first, item.last);
+	}
+	
+	@Override
+	public int getReach() {
+		return 6;
+	}
+	
+	@Override
+	public void accept(Item item, int first, int last) {
 		final float[] output = item.output;
-		for (int i = _offset; i < output.length - 6; i += _step) {
+		for (int i = Signals.align(first, _offset, _step), il = Math.min(last, output.length - 6); i < il; i += _step) {
 			output[i] = (output[i] + output[i + 2] + output[i + 4] + output[i + 6]) / 4.0f;
 		}
 	}
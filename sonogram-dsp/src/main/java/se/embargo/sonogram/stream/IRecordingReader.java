@@ -0,0 +1,62 @@
+package se.embargo.sonogram.stream;
+
+import java.io.IOException;
+
+/**
+ * Reads the frames of a recording, not thread safe.
+ */
+public interface IRecordingReader {
+	/**
+	 * @return	Header of the recording
+	 */
+	public abstract StreamHeader getHeader();
+
+	/**
+	 * @return	Number of frames in the recording, or -1 if not known without reading the whole recording
+	 */
+	public abstract int getFrameCount();
+
+	/**
+	 * @return	True if seek() doesn't depend on the distance to the frame
+	 */
+	public abstract boolean isSeekable();
+
+	/**
+	 * @return	Index of the next frame to read
+	 */
+	public abstract int getPosition();
+
+	/**
+	 * Positions the reader at the given frame
+	 * @param frame	Index of the next frame to read
+	 */
+	public abstract void seek(int frame) throws IOException;
+
+	/**
+	 * Reads the next frame
+	 * @param samples	Buffer receiving header.samplecount interleaved samples
+	 * @param offset	Offset into the buffer
+	 * @return			False when the end of the recording is reached
+	 */
+	public abstract boolean read(short[] samples, int offset) throws IOException;
+
+	/**
+	 * Reads a range of frames stored back to back in the buffer
+	 * @param first		Index of the first frame
+	 * @param count		Number of frames to read
+	 * @return			Number of frames read, less than count at the end of the recording
+	 */
+	public abstract int read(int first, int count, short[] samples, int offset) throws IOException;
+
+	/**
+	 * @return	Capture time in nanoseconds of the last frame read
+	 */
+	public abstract long getTimestamp();
+
+	/**
+	 * @return	Distance between the microphones in meters when the last frame was read
+	 */
+	public abstract float getBaseline();
+
+	public abstract void close() throws IOException;
+}
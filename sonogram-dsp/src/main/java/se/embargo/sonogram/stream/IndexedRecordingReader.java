@@ -0,0 +1,317 @@
+package se.embargo.sonogram.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads VERSION_INDEXED recordings with random access to every frame. The
+ * index is read from the end of the file, or rebuilt by scanning the block
+ * headers if the recording wasn't closed properly. Uncompressed recordings
+ * are memory-mapped and their frames can be read without copying.
+ */
+public class IndexedRecordingReader implements IRecordingReader {
+	/**
+	 * Maximum number of bytes mapped at once
+	 */
+	private static final long MAPSIZE = 256 * 1024 * 1024;
+	
+	private final RandomAccessFile _file;
+	private final StreamHeader _header;
+	private final Inflater _inflater = new Inflater();
+	private PredictiveCodec _codec;
+
+	/**
+	 * Frame index
+	 */
+	private long[] _offsets, _timestamps;
+	private int[] _lengths;
+	private float[] _baselines;
+	private int _framecount = 0;
+
+	private final ByteBuffer _frame;
+	private byte[] _block = new byte[0];
+	private int _position = 0;
+	private long _timestamp = 0;
+	private float _baseline;
+
+	/**
+	 * Mapped region of an uncompressed recording
+	 */
+	private MappedByteBuffer _map;
+	private long _mapoffset;
+
+	/**
+	 * @throws IOException	If the file isn't a VERSION_INDEXED recording
+	 */
+	public IndexedRecordingReader(File file) throws IOException {
+		_file = new RandomAccessFile(file, "r");
+
+		try {
+			_header = StreamHeader.read(_file);
+			if (_header.version != StreamFormat.VERSION_INDEXED) {
+				throw new IOException("Unsupported version number: " + _header.version);
+			}
+
+			_baseline = _header.baseline;
+			_frame = ByteBuffer.allocate(_header.samplecount * 2);
+
+			long start = _file.getFilePointer();
+			if (!readIndex(start)) {
+				scanBlocks(start);
+			}
+		}
+		catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public StreamHeader getHeader() {
+		return _header;
+	}
+
+	@Override
+	public int getFrameCount() {
+		return _framecount;
+	}
+
+	@Override
+	public boolean isSeekable() {
+		return true;
+	}
+
+	@Override
+	public int getPosition() {
+		return _position;
+	}
+
+	@Override
+	public void seek(int frame) throws IOException {
+		_position = Math.max(0, Math.min(frame, _framecount));
+	}
+
+	/**
+	 * @return	True if frames can be read with readBuffer()
+	 */
+	public boolean isMapped() {
+		return StreamFormat.isUncompressed(_header.compression);
+	}
+
+	/**
+	 * Reads the next frame of an uncompressed recording without copying it. The view stays 
+	 * valid after the reader has been closed or moved on, and pages are shared with any
+	 * other reader of the same file.
+	 * @return	Read-only view of the frame samples, or null at the end of the recording
+	 * @throws	IllegalStateException	If the recording is compressed
+	 */
+	public ShortBuffer readBuffer() throws IOException {
+		if (!isMapped()) {
+			throw new IllegalStateException("Only uncompressed recordings can be mapped");
+		}
+
+		if (_position >= _framecount) {
+			return null;
+		}
+
+		final long start = _offsets[_position] + RecordingWriter.BLOCK_HEADER_SIZE;
+		final int length = _header.samplecount * 2;
+		if (_lengths[_position] != length) {
+			throw new IOException("Corrupt frame " + _position);
+		}
+
+		if (_map == null || start < _mapoffset || start + length > _mapoffset + _map.capacity()) {
+			_mapoffset = start;
+			_map = _file.getChannel().map(FileChannel.MapMode.READ_ONLY, start, Math.max(Math.min(MAPSIZE, _file.length() - start), length));
+		}
+
+		ByteBuffer frame = _map.duplicate();
+		frame.position((int)(start - _mapoffset));
+		frame.limit(frame.position() + length);
+
+		_timestamp = _timestamps[_position];
+		_baseline = _baselines[_position];
+		_position++;
+		return frame.slice().order(StreamFormat.getSampleOrder(_header.compression)).asShortBuffer().asReadOnlyBuffer();
+	}
+
+	@Override
+	public boolean read(short[] samples, int offset) throws IOException {
+		if (isMapped()) {
+			ShortBuffer frame = readBuffer();
+			if (frame == null) {
+				return false;
+			}
+
+			frame.get(samples, offset, _header.samplecount);
+			return true;
+		}
+
+		if (_position >= _framecount) {
+			return false;
+		}
+
+		// Skip the block header since it duplicates the index entry
+		final int length = _lengths[_position];
+		if (_block.length < length) {
+			_block = new byte[length];
+		}
+
+		_file.seek(_offsets[_position] + RecordingWriter.BLOCK_HEADER_SIZE);
+		_file.readFully(_block, 0, length);
+
+		if (_header.compression == StreamFormat.COMPRESSION_PREDICTIVE) {
+			if (_codec == null) {
+				_codec = new PredictiveCodec(_header.samplecount);
+			}
+
+			_codec.decode(_block, 0, length, samples, offset);
+		}
+		else {
+			inflate(length);
+			_frame.clear();
+			StreamFormat.decode(_frame, samples, offset, _header.samplecount);
+		}
+
+		_timestamp = _timestamps[_position];
+		_baseline = _baselines[_position];
+		_position++;
+		return true;
+	}
+
+	/**
+	 * Inflates a deflated block into _frame
+	 */
+	private void inflate(int length) throws IOException {
+		_inflater.reset();
+		_inflater.setInput(_block, 0, length);
+
+		try {
+			if (_inflater.inflate(_frame.array(), 0, _frame.capacity()) != _frame.capacity() || !_inflater.finished()) {
+				throw new IOException("Corrupt frame " + _position);
+			}
+		}
+		catch (DataFormatException e) {
+			throw new IOException("Corrupt frame " + _position, e);
+		}
+	}
+
+	@Override
+	public int read(int first, int count, short[] samples, int offset) throws IOException {
+		seek(first);
+
+		int i = 0;
+		for (; i < count && read(samples, offset + i * _header.samplecount); i++);
+		return i;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return _timestamp;
+	}
+
+	@Override
+	public float getBaseline() {
+		return _baseline;
+	}
+
+	@Override
+	public void close() throws IOException {
+		// Mapped frames stay valid until they're garbage collected
+		_map = null;
+		_inflater.end();
+		_file.close();
+	}
+
+	private void allocate(int capacity) {
+		_offsets = new long[capacity];
+		_timestamps = new long[capacity];
+		_lengths = new int[capacity];
+		_baselines = new float[capacity];
+	}
+
+	/**
+	 * @param start	Offset of the first block
+	 * @return		False if the recording doesn't have a valid index
+	 */
+	private boolean readIndex(long start) throws IOException {
+		final long length = _file.length();
+		if (length - start < RecordingWriter.FOOTER_SIZE) {
+			return false;
+		}
+
+		_file.seek(length - RecordingWriter.FOOTER_SIZE);
+		long indexoffset = _file.readLong();
+		int framecount = _file.readInt();
+		int magic = _file.readInt();
+
+		if (magic != RecordingWriter.INDEX_MAGIC || framecount < 0 || indexoffset < start ||
+			indexoffset + (long)framecount * RecordingWriter.INDEX_ENTRY_SIZE != length - RecordingWriter.FOOTER_SIZE) {
+			return false;
+		}
+
+		// Read the whole index at once
+		ByteBuffer index = ByteBuffer.allocate(framecount * RecordingWriter.INDEX_ENTRY_SIZE).order(StreamFormat.ORDER);
+		_file.seek(indexoffset);
+		_file.readFully(index.array());
+
+		allocate(framecount);
+		for (int i = 0; i < framecount; i++) {
+			_offsets[i] = index.getLong();
+			_lengths[i] = index.getInt();
+			_timestamps[i] = index.getLong();
+			_baselines[i] = index.getFloat();
+		}
+
+		_framecount = framecount;
+		return true;
+	}
+
+	/**
+	 * Rebuilds the index from the block headers, any truncated block at the end is ignored
+	 * @param start	Offset of the first block
+	 */
+	private void scanBlocks(long start) throws IOException {
+		final long length = _file.length();
+		long offset = start;
+		allocate(1024);
+
+		while (offset + RecordingWriter.BLOCK_HEADER_SIZE <= length) {
+			_file.seek(offset);
+			int blocklength = _file.readInt();
+			long timestamp = _file.readLong();
+			float baseline = _file.readFloat();
+
+			if (blocklength < 0 || offset + RecordingWriter.BLOCK_HEADER_SIZE + blocklength > length) {
+				break;
+			}
+
+			if (_framecount == _offsets.length) {
+				long[] offsets = _offsets, timestamps = _timestamps;
+				int[] lengths = _lengths;
+				float[] baselines = _baselines;
+
+				allocate(_framecount * 2);
+				System.arraycopy(offsets, 0, _offsets, 0, _framecount);
+				System.arraycopy(timestamps, 0, _timestamps, 0, _framecount);
+				System.arraycopy(lengths, 0, _lengths, 0, _framecount);
+				System.arraycopy(baselines, 0, _baselines, 0, _framecount);
+			}
+
+			_offsets[_framecount] = offset;
+			_lengths[_framecount] = blocklength;
+			_timestamps[_framecount] = timestamp;
+			_baselines[_framecount] = baseline;
+			_framecount++;
+
+			offset += RecordingWriter.BLOCK_HEADER_SIZE + blocklength;
+		}
+	}
+}
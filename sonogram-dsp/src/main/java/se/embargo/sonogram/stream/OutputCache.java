@@ -0,0 +1,421 @@
+package se.embargo.sonogram.stream;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Disk cache of filter output for the frames of recordings, so that replaying a
+ * recording with other downstream filters doesn't recompute the stages in front
+ * of them. Each entry is a sidecar file with the output of one stage for every
+ * frame of one recording, laid out as
+ *
+ * 	header		int MAGIC, int VERSION, int samplecount
+ * 	slots		One per frame index as samplecount floats followed by int SLOT_MAGIC
+ *
+ * Entries are keyed by the contents of the recording, the operator and the
+ * identity of the stage, so changing any of them gives a new entry rather than
+ * stale output. The bytes used by the entries are counted as they grow, and when
+ * a frame would take the cache past its capacity the least recently opened entries
+ * which aren't open are deleted, or the frame isn't stored if that's not enough.
+ */
+public class OutputCache {
+	private static final int MAGIC = 0x4f555443, VERSION = 1;
+	private static final int HEADER_SIZE = 12;
+
+	/**
+	 * Written after the output of a frame, so frames that were only partially written are ignored
+	 */
+	private static final int SLOT_MAGIC = 0x2c5d8e17;
+
+	/**
+	 * Number of entries kept open
+	 */
+	private static final int MAXOPEN = 4;
+
+	/**
+	 * Number of bytes hashed at the start and end of a recording
+	 */
+	private static final int SAMPLESIZE = 64 * 1024;
+
+	private static final String SUFFIX = ".cache";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File _directory;
+	private final long _capacity;
+
+	@SuppressWarnings("serial")
+	private final Map<String, Entry> _entries = new LinkedHashMap<String, Entry>(MAXOPEN * 2, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, OutputCache.Entry> eldest) {
+			if (size() > MAXOPEN) {
+				eldest.getValue().close();
+				_evictable = true;
+				return true;
+			}
+
+			return false;
+		}
+	};
+
+	/**
+	 * Keys of entries which couldn't be opened
+	 */
+	private final Set<String> _failed = new HashSet<String>();
+
+	/**
+	 * Number of bytes used by all entries, or -1 until the directory has been scanned
+	 */
+	private long _size = -1;
+
+	/**
+	 * Cleared when all entries that could be deleted have been, set again when an entry is closed
+	 */
+	private boolean _evictable = true;
+
+	/**
+	 * @param directory	Directory to store the entries in, created when needed
+	 * @param capacity	Maximum number of bytes used by all entries
+	 */
+	public OutputCache(File directory, long capacity) {
+		_directory = directory;
+		_capacity = capacity;
+	}
+
+	/**
+	 * Identifies a recording by its length, modification time and the contents
+	 * at its start and end, so that rewriting it invalidates its entries without
+	 * having to hash the whole file.
+	 * @return	Identity to use as the source of the frames of the recording
+	 */
+	public static String identify(File recording) throws IOException {
+		MessageDigest digest = createDigest();
+		RandomAccessFile file = new RandomAccessFile(recording, "r");
+
+		try {
+			final long length = file.length();
+			ByteBuffer buffer = ByteBuffer.allocate(16);
+			buffer.putLong(length);
+			buffer.putLong(recording.lastModified());
+			digest.update(buffer.array());
+
+			byte[] sample = new byte[(int)Math.min(SAMPLESIZE, length)];
+			file.readFully(sample);
+			digest.update(sample);
+
+			file.seek(length - sample.length);
+			file.readFully(sample);
+			digest.update(sample);
+		}
+		finally {
+			file.close();
+		}
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * @param source		Identity of the recording from identify()
+	 * @param operator		Operator the frames were filtered with
+	 * @param stage			Identity of the stage and any stages before it
+	 * @param samplecount	Number of output values in a frame
+	 * @return				Entry for the output of the stage, or null if the cache isn't available
+	 */
+	public synchronized Entry getEntry(String source, float[] operator, String stage, int samplecount) {
+		MessageDigest digest = createDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(8 + operator.length * 4);
+		buffer.putInt(VERSION);
+		buffer.putInt(samplecount);
+		buffer.asFloatBuffer().put(operator);
+		digest.update(buffer.array());
+		digest.update(source.getBytes(UTF8));
+		digest.update((byte)0);
+		digest.update(stage.getBytes(UTF8));
+
+		final String key = toHex(digest.digest());
+		Entry entry = _entries.get(key);
+		if (entry != null || _failed.contains(key)) {
+			return entry;
+		}
+
+		File file = new File(_directory, key + SUFFIX);
+		try {
+			if (!_directory.isDirectory() && !_directory.mkdirs()) {
+				throw new IOException("Failed to create " + _directory);
+			}
+
+			if (_size < 0) {
+				_size = getUsage();
+			}
+
+			final long length = file.length();
+			entry = new Entry(this, file, samplecount);
+			_size += entry.getLength() - length;
+		}
+		catch (IOException e) {
+			_failed.add(key);
+			return null;
+		}
+
+		// The modification time orders the entries by when they were last used
+		file.setLastModified(System.currentTimeMillis());
+		_entries.put(key, entry);
+		if (_size > _capacity) {
+			evict(_capacity);
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Closes all open entries
+	 */
+	public synchronized void close() {
+		for (Entry entry : _entries.values()) {
+			entry.close();
+		}
+
+		_entries.clear();
+		_evictable = true;
+	}
+
+	/**
+	 * Accounts for an entry growing, deleting entries which aren't open to make room
+	 * @param bytes	Number of bytes the entry grows by
+	 * @return		True if the entry may grow, or false if the cache is full
+	 */
+	private synchronized boolean reserve(long bytes) {
+		if (_size + bytes > _capacity && _evictable) {
+			evict(_capacity - bytes);
+		}
+
+		if (_size + bytes > _capacity) {
+			return false;
+		}
+
+		_size += bytes;
+		return true;
+	}
+
+	/**
+	 * @return	Number of bytes used by the entries on disk
+	 */
+	private long getUsage() {
+		long size = 0;
+		for (File file : listEntries()) {
+			size += file.length();
+		}
+
+		return size;
+	}
+
+	private File[] listEntries() {
+		File[] files = _directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.getName().endsWith(SUFFIX);
+			}
+		});
+
+		return files != null ? files : new File[0];
+	}
+
+	/**
+	 * Deletes the least recently used entries which aren't open until the cache fits within the limit
+	 * @param limit	Number of bytes the cache may use
+	 */
+	private void evict(long limit) {
+		File[] files = listEntries();
+		long size = 0;
+		for (File file : files) {
+			size += file.length();
+		}
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long ma = a.lastModified(), mb = b.lastModified();
+				return ma < mb ? -1 : (ma > mb ? 1 : 0);
+			}
+		});
+
+		for (int i = 0; i < files.length && size > limit; i++) {
+			String name = files[i].getName();
+			if (_entries.containsKey(name.substring(0, name.length() - SUFFIX.length()))) {
+				continue;
+			}
+
+			long length = files[i].length();
+			if (files[i].delete()) {
+				size -= length;
+			}
+		}
+
+		// Only closing an entry makes more of them deletable
+		_size = size;
+		_evictable = size <= limit;
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder result = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			result.append(Character.forDigit((b >> 4) & 0xf, 16));
+			result.append(Character.forDigit(b & 0xf, 16));
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * Output of one stage for the frames of one recording. Frames may be read and
+	 * written concurrently, and failing to do so is treated as a cache miss.
+	 */
+	public static class Entry {
+		private final OutputCache _cache;
+		private final RandomAccessFile _file;
+		private final FileChannel _channel;
+		private final int _samplecount, _slotsize;
+
+		/**
+		 * Length of the file, which grows as frames are written past its end
+		 */
+		private long _length;
+
+		private final ThreadLocal<ByteBuffer> _buffer = new ThreadLocal<ByteBuffer>() {
+			@Override
+			protected ByteBuffer initialValue() {
+				return ByteBuffer.allocate(_slotsize).order(StreamFormat.ORDER);
+			}
+		};
+
+		private Entry(OutputCache cache, File file, int samplecount) throws IOException {
+			_cache = cache;
+			_file = new RandomAccessFile(file, "rw");
+			_channel = _file.getChannel();
+			_samplecount = samplecount;
+			_slotsize = samplecount * 4 + 4;
+
+			try {
+				// Start over if the entry was written by another version
+				if (_file.length() < HEADER_SIZE || _file.readInt() != MAGIC || _file.readInt() != VERSION || _file.readInt() != samplecount) {
+					_file.setLength(0);
+					_file.seek(0);
+					_file.writeInt(MAGIC);
+					_file.writeInt(VERSION);
+					_file.writeInt(samplecount);
+				}
+
+				_length = _file.length();
+			}
+			catch (IOException e) {
+				_file.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * @param frame		Index of the frame in the recording
+		 * @param output	Receives the cached output
+		 * @return			True if the output of the frame was cached
+		 */
+		public boolean read(int frame, float[] output) {
+			final long position = HEADER_SIZE + (long)frame * _slotsize;
+			final ByteBuffer buffer = _buffer.get();
+			buffer.clear();
+
+			try {
+				while (buffer.hasRemaining()) {
+					if (_channel.read(buffer, position + buffer.position()) < 0) {
+						return false;
+					}
+				}
+			}
+			catch (IOException e) {
+				return false;
+			}
+
+			if (buffer.getInt(_slotsize - 4) != SLOT_MAGIC) {
+				return false;
+			}
+
+			buffer.clear();
+			StreamFormat.decode(buffer, output, 0, _samplecount);
+			return true;
+		}
+
+		/**
+		 * Stores the output of a frame, frames which don't fit within the capacity of the cache are ignored
+		 * @param frame		Index of the frame in the recording
+		 * @param output	Output of the stage
+		 */
+		public void write(int frame, float[] output) {
+			final long position = HEADER_SIZE + (long)frame * _slotsize;
+			if (!extend(position + _slotsize)) {
+				return;
+			}
+
+			final ByteBuffer buffer = _buffer.get();
+			buffer.clear();
+			StreamFormat.encode(buffer, output, 0, _samplecount);
+			buffer.putInt(SLOT_MAGIC);
+			buffer.flip();
+
+			try {
+				while (buffer.hasRemaining()) {
+					_channel.write(buffer, position + buffer.position());
+				}
+			}
+			catch (IOException e) {}
+		}
+
+		private synchronized long getLength() {
+			return _length;
+		}
+
+		/**
+		 * Reserves room in the cache when a write goes past the end of the file
+		 * @param end	Position of the end of the write
+		 * @return		True if the write fits within the capacity of the cache
+		 */
+		private synchronized boolean extend(long end) {
+			if (end <= _length) {
+				return true;
+			}
+
+			if (!_cache.reserve(end - _length)) {
+				return false;
+			}
+
+			_length = end;
+			return true;
+		}
+
+		private void close() {
+			try {
+				_file.close();
+			}
+			catch (IOException e) {}
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package se.embargo.sonogram.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Deflater;
+
+/**
+ * Writes VERSION_INDEXED recordings, laid out as
+ *
+ * 	header		StreamHeader, uncompressed
+ * 	blocks		One per frame as int length, long timestamp, float baseline
+ * 				followed by length bytes of compressed samples
+ * 	index		One entry per frame as long block offset, int length,
+ * 				long timestamp, float baseline
+ * 	footer		long index offset, int frame count, int INDEX_MAGIC
+ *
+ * The blocks are self-describing so a recording that wasn't closed can
+ * still be read by scanning the blocks. With COMPRESSION_NONE and
+ * COMPRESSION_NONE_LITTLE_ENDIAN a block holds the raw frame in the byte
+ * order of the compression, so readers can map the file instead of decoding it.
+ * With COMPRESSION_PREDICTIVE a block is coded with PredictiveCodec.
+ */
+public class RecordingWriter {
+	public static final int INDEX_MAGIC = 0x5f1dbe3c;
+
+	/**
+	 * Size of a block header, index entry and footer in bytes
+	 */
+	public static final int BLOCK_HEADER_SIZE = 16, INDEX_ENTRY_SIZE = 24, FOOTER_SIZE = 16;
+
+	private final WritableByteChannel _channel;
+	private final int _compression;
+	private final Deflater _deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+	private final DataOutputStream _index;
+	private final ByteArrayOutputStream _indexbuffer = new ByteArrayOutputStream();
+
+	/**
+	 * Block header and contents, written with a single gathering write
+	 */
+	private final ByteBuffer _blockheader = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(StreamFormat.ORDER);
+	private final ByteBuffer[] _blockbuffers = new ByteBuffer[2];
+
+	private ByteBuffer _frame = ByteBuffer.allocate(0);
+	private byte[] _block = new byte[0];
+	private ByteBuffer _blockbuffer;
+	private PredictiveCodec _codec;
+
+	/**
+	 * Number of bytes written to the channel
+	 */
+	private long _position = 0;
+	private int _framecount = 0;
+	private StreamHeader _header;
+
+	/**
+	 * @param channel		Channel to write to, typically a FileChannel
+	 * @param compression	Encoding of the frames, e.g. StreamFormat.COMPRESSION_DEFLATE
+	 */
+	public RecordingWriter(WritableByteChannel channel, int compression) {
+		if (!StreamFormat.isSupportedCompression(compression)) {
+			throw new IllegalArgumentException("Unsupported compression: " + compression);
+		}
+
+		_channel = channel;
+		_compression = compression;
+		_index = new DataOutputStream(_indexbuffer);
+	}
+
+	/**
+	 * @param os			Raw output stream, files are written through their FileChannel
+	 * @param compression	Encoding of the frames, e.g. StreamFormat.COMPRESSION_DEFLATE
+	 */
+	public RecordingWriter(OutputStream os, int compression) {
+		this(os instanceof FileOutputStream ? ((FileOutputStream)os).getChannel() : Channels.newChannel(os), compression);
+	}
+
+	/**
+	 * @param os	Raw output stream, typically a file
+	 */
+	public RecordingWriter(OutputStream os) {
+		this(os, StreamFormat.COMPRESSION_PREDICTIVE);
+	}
+
+	/**
+	 * @return	Number of frames written
+	 */
+	public int getFrameCount() {
+		return _framecount;
+	}
+
+	/**
+	 * Writes the header, must be called once before writing any frames. The
+	 * compression of the header is set to the one of this writer.
+	 * @throws IllegalArgumentException	If the header is for another version
+	 */
+	public void writeHeader(StreamHeader header) throws IOException {
+		if (header.version != StreamFormat.VERSION_INDEXED) {
+			throw new IllegalArgumentException("Unsupported version number: " + header.version);
+		}
+
+		_header = header;
+		_header.compression = _compression;
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		_header.write(new DataOutputStream(buffer));
+		write(ByteBuffer.wrap(buffer.toByteArray()));
+	}
+
+	/**
+	 * Encodes and writes a frame of header.samplecount interleaved samples
+	 * @param timestamp	Capture time in nanoseconds
+	 * @param baseline	Distance between the microphones in meters
+	 */
+	public void writeFrame(short[] samples, int offset, long timestamp, float baseline) throws IOException {
+		final int length = _header.samplecount * 2;
+		ByteBuffer block;
+
+		if (_compression == StreamFormat.COMPRESSION_PREDICTIVE) {
+			if (_codec == null) {
+				_codec = new PredictiveCodec(_header.samplecount);
+				_block = new byte[_codec.getMaxBlockLength()];
+				_blockbuffer = ByteBuffer.wrap(_block);
+			}
+
+			block = _blockbuffer;
+			block.clear();
+			block.limit(_codec.encode(samples, offset, _block));
+		}
+		else {
+			if (_frame.capacity() < length) {
+				_frame = ByteBuffer.allocate(length);
+			}
+
+			_frame.clear();
+			StreamFormat.encode(_frame, samples, offset, _header.samplecount, StreamFormat.getSampleOrder(_compression));
+			_frame.flip();
+
+			if (StreamFormat.isUncompressed(_compression)) {
+				block = _frame;
+			}
+			else {
+				int compressed = deflate(length);
+				block = _blockbuffer;
+				block.clear();
+				block.limit(compressed);
+			}
+		}
+
+		final int blocklength = block.remaining();
+		_blockheader.clear();
+		_blockheader.putInt(blocklength);
+		_blockheader.putLong(timestamp);
+		_blockheader.putFloat(baseline);
+		_blockheader.flip();
+
+		_blockbuffers[0] = _blockheader;
+		_blockbuffers[1] = block;
+		write(_blockbuffers);
+
+		_index.writeLong(_position - BLOCK_HEADER_SIZE - blocklength);
+		_index.writeInt(blocklength);
+		_index.writeLong(timestamp);
+		_index.writeFloat(baseline);
+		_framecount++;
+	}
+
+	/**
+	 * Writes the index and closes the channel
+	 */
+	public void close() throws IOException {
+		try {
+			_index.writeLong(_position);
+			_index.writeInt(_framecount);
+			_index.writeInt(INDEX_MAGIC);
+			_index.flush();
+			write(ByteBuffer.wrap(_indexbuffer.toByteArray()));
+		}
+		finally {
+			_deflater.end();
+			_channel.close();
+		}
+	}
+
+	/**
+	 * @return	Number of compressed bytes in _block
+	 */
+	private int deflate(int length) {
+		if (_blockbuffer == null) {
+			_block = new byte[length + length / 1000 + 64];
+			_blockbuffer = ByteBuffer.wrap(_block);
+		}
+
+		_deflater.reset();
+		_deflater.setInput(_frame.array(), 0, length);
+		_deflater.finish();
+
+		int compressed = 0;
+		while (!_deflater.finished()) {
+			if (compressed == _block.length) {
+				byte[] block = new byte[_block.length * 2];
+				System.arraycopy(_block, 0, block, 0, compressed);
+				_block = block;
+				_blockbuffer = ByteBuffer.wrap(_block);
+			}
+
+			compressed += _deflater.deflate(_block, compressed, _block.length - compressed);
+		}
+
+		return compressed;
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		_position += buffer.remaining();
+		while (buffer.hasRemaining()) {
+			_channel.write(buffer);
+		}
+	}
+
+	private void write(ByteBuffer[] buffers) throws IOException {
+		if (_channel instanceof GatheringByteChannel) {
+			for (ByteBuffer buffer : buffers) {
+				_position += buffer.remaining();
+			}
+
+			while (buffers[buffers.length - 1].hasRemaining()) {
+				((GatheringByteChannel)_channel).write(buffers);
+			}
+		}
+		else {
+			for (ByteBuffer buffer : buffers) {
+				write(buffer);
+			}
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package se.embargo.sonogram.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Layout of .sonar recordings, all values are in big endian byte order except
+ * the samples of COMPRESSION_NONE_LITTLE_ENDIAN frame blocks.
+ * 
+ * A VERSION_STREAM recording is a single deflate stream containing a 
+ * StreamHeader followed by frames of interleaved 16-bit samples.
+ * 
+ * A VERSION_INDEXED recording starts with an uncompressed StreamHeader 
+ * followed by one independently compressed block per frame and ends with 
+ * an index of the blocks, see RecordingWriter.
+ */
+public class StreamFormat {
+	public static final int MAGIC = 0xa24c7709;
+	
+	/**
+	 * Single deflate stream, can only be read from the start
+	 */
+	public static final int VERSION_STREAM = 3;
+	
+	/**
+	 * Per-frame deflate blocks and a trailing frame index
+	 */
+	public static final int VERSION_INDEXED = 4;
+	
+	/**
+	 * Version written by default
+	 */
+	public static final int VERSION = VERSION_INDEXED;
+	
+	/**
+	 * Frame blocks are deflated
+	 */
+	public static final int COMPRESSION_DEFLATE = 0;
+	
+	/**
+	 * Frame blocks are raw big endian samples which can be memory-mapped
+	 */
+	public static final int COMPRESSION_NONE = 1;
+	
+	/**
+	 * Frame blocks are coded with the lossless PredictiveCodec
+	 */
+	public static final int COMPRESSION_PREDICTIVE = 2;
+	
+	/**
+	 * Frame blocks are raw little endian samples which can be memory-mapped, and 
+	 * read without swapping bytes on little endian devices such as ARM
+	 */
+	public static final int COMPRESSION_NONE_LITTLE_ENDIAN = 3;
+	
+	/**
+	 * @return	True if the compression is supported in VERSION_INDEXED recordings
+	 */
+	public static boolean isSupportedCompression(int compression) {
+		return compression == COMPRESSION_DEFLATE || compression == COMPRESSION_PREDICTIVE || isUncompressed(compression);
+	}
+	
+	/**
+	 * @return	True if the frame blocks of the compression are raw samples
+	 */
+	public static boolean isUncompressed(int compression) {
+		return compression == COMPRESSION_NONE || compression == COMPRESSION_NONE_LITTLE_ENDIAN;
+	}
+	
+	/**
+	 * @return	Uncompressed encoding in the native byte order, so mapped frames are read without swapping bytes
+	 */
+	public static int getNativeUncompressed() {
+		return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? COMPRESSION_NONE_LITTLE_ENDIAN : COMPRESSION_NONE;
+	}
+	
+	/**
+	 * @return	Byte order of the samples in the frame blocks of the compression
+	 */
+	public static ByteOrder getSampleOrder(int compression) {
+		return compression == COMPRESSION_NONE_LITTLE_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ORDER;
+	}
+	
+	/**
+	 * Byte order of all values in a recording
+	 */
+	public static final ByteOrder ORDER = ByteOrder.BIG_ENDIAN;
+	
+	/**
+	 * Scratch buffer used to move whole frames to and from the streams
+	 */
+	private static final ThreadLocal<ByteBuffer> _scratch = new ThreadLocal<ByteBuffer>();
+	
+	/**
+	 * Opens a recording of any supported version
+	 * @throws IOException	If the file isn't a supported recording
+	 */
+	public static IRecordingReader open(File file) throws IOException {
+		RandomAccessFile is = new RandomAccessFile(file, "r");
+		int magic;
+		
+		try {
+			magic = is.length() >= 4 ? is.readInt() : 0;
+		}
+		finally {
+			is.close();
+		}
+		
+		// Only the indexed version starts with an uncompressed header
+		if (magic == MAGIC) {
+			return new IndexedRecordingReader(file);
+		}
+		
+		return new StreamRecordingReader(file);
+	}
+	
+	/**
+	 * Creates a VERSION_STREAM recording, use RecordingWriter for VERSION_INDEXED
+	 * @param os	Raw output stream, typically a file
+	 * @return		Compressing stream to write the header and frames to
+	 */
+	public static DataOutputStream createOutputStream(OutputStream os) {
+		return new DataOutputStream(new DeflaterOutputStream(new BufferedOutputStream(os)));
+	}
+	
+	/**
+	 * Reads a VERSION_STREAM recording, use open() to read recordings of any version
+	 * @param is	Raw input stream, typically a file
+	 * @return		Decompressing stream to read the header and frames from
+	 */
+	public static DataInputStream createInputStream(InputStream is) {
+		return new DataInputStream(new InflaterInputStream(new BufferedInputStream(is)));
+	}
+	
+	/**
+	 * Encodes interleaved samples into a buffer and advances its position
+	 */
+	public static void encode(ByteBuffer buffer, short[] samples, int offset, int count) {
+		encode(buffer, samples, offset, count, ORDER);
+	}
+	
+	/**
+	 * Encodes interleaved samples in the given byte order into a buffer and advances its position
+	 */
+	public static void encode(ByteBuffer buffer, short[] samples, int offset, int count, ByteOrder order) {
+		buffer.order(order).asShortBuffer().put(samples, offset, count);
+		buffer.position(buffer.position() + count * 2);
+	}
+	
+	/**
+	 * Decodes interleaved samples from a buffer and advances its position
+	 */
+	public static void decode(ByteBuffer buffer, short[] samples, int offset, int count) {
+		buffer.order(ORDER).asShortBuffer().get(samples, offset, count);
+		buffer.position(buffer.position() + count * 2);
+	}
+	
+	/**
+	 * Encodes floats, e.g. the operator, into a buffer and advances its position
+	 */
+	public static void encode(ByteBuffer buffer, float[] values, int offset, int count) {
+		buffer.order(ORDER).asFloatBuffer().put(values, offset, count);
+		buffer.position(buffer.position() + count * 4);
+	}
+	
+	/**
+	 * Decodes floats from a buffer and advances its position
+	 */
+	public static void decode(ByteBuffer buffer, float[] values, int offset, int count) {
+		buffer.order(ORDER).asFloatBuffer().get(values, offset, count);
+		buffer.position(buffer.position() + count * 4);
+	}
+	
+	/**
+	 * Writes a frame of interleaved samples
+	 */
+	public static void writeFrame(DataOutputStream os, short[] samples, int offset, int count) throws IOException {
+		ByteBuffer buffer = getScratch(count * 2);
+		encode(buffer, samples, offset, count);
+		os.write(buffer.array(), 0, buffer.position());
+	}
+	
+	/**
+	 * Reads a frame of interleaved samples
+	 * @throws java.io.EOFException	When the end of the recording is reached
+	 */
+	public static void readFrame(DataInputStream is, short[] samples, int offset, int count) throws IOException {
+		ByteBuffer buffer = getScratch(count * 2);
+		is.readFully(buffer.array(), 0, count * 2);
+		decode(buffer, samples, offset, count);
+	}
+	
+	/**
+	 * Writes an array of floats
+	 */
+	public static void writeFloats(DataOutput os, float[] values) throws IOException {
+		ByteBuffer buffer = getScratch(values.length * 4);
+		encode(buffer, values, 0, values.length);
+		os.write(buffer.array(), 0, buffer.position());
+	}
+	
+	/**
+	 * Reads an array of floats
+	 */
+	public static void readFloats(DataInput is, float[] values) throws IOException {
+		ByteBuffer buffer = getScratch(values.length * 4);
+		is.readFully(buffer.array(), 0, values.length * 4);
+		decode(buffer, values, 0, values.length);
+	}
+	
+	/**
+	 * @return	Cleared per-thread buffer with room for at least length bytes
+	 */
+	private static ByteBuffer getScratch(int length) {
+		ByteBuffer buffer = _scratch.get();
+		if (buffer == null || buffer.capacity() < length) {
+			buffer = ByteBuffer.allocate(length);
+			_scratch.set(buffer);
+		}
+		
+		buffer.clear();
+		return buffer;
+	}
+}
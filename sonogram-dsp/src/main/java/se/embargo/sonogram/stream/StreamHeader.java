@@ -0,0 +1,102 @@
+package se.embargo.sonogram.stream;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Header at the start of a .sonar recording
+ */
+public class StreamHeader {
+	public int version = StreamFormat.VERSION;
+	public float samplerate;
+	
+	/**
+	 * Distance between microphones in meters
+	 */
+	public float baseline;
+	
+	/**
+	 * Number of interleaved samples in each frame
+	 */
+	public int samplecount;
+	
+	/**
+	 * Resolution of the sonar which made the recording
+	 */
+	public int width, height;
+	
+	/**
+	 * Sonar pulse time series
+	 */
+	public float[] operator;
+	
+	/**
+	 * Encoding of the frame blocks in VERSION_INDEXED recordings, e.g. StreamFormat.COMPRESSION_DEFLATE
+	 */
+	public int compression = StreamFormat.COMPRESSION_PREDICTIVE;
+	
+	public StreamHeader() {}
+	
+	public StreamHeader(float samplerate, float baseline, int samplecount, int width, int height, float[] operator) {
+		this.samplerate = samplerate;
+		this.baseline = baseline;
+		this.samplecount = samplecount;
+		this.width = width;
+		this.height = height;
+		this.operator = operator;
+	}
+	
+	/**
+	 * @throws IOException	If the stream isn't a supported recording
+	 */
+	public static StreamHeader read(DataInput is) throws IOException {
+		int magic = is.readInt();
+		if (magic != StreamFormat.MAGIC) {
+			throw new IOException("Invalid magic number: " + magic);
+		}
+		
+		StreamHeader result = new StreamHeader();
+		result.version = is.readInt();
+		if (result.version != StreamFormat.VERSION_STREAM && result.version != StreamFormat.VERSION_INDEXED) {
+			throw new IOException("Unsupported version number: " + result.version);
+		}
+		
+		result.samplerate = is.readFloat();
+		result.baseline = is.readFloat();
+		result.samplecount = is.readInt();
+		result.width = is.readInt();
+		result.height = is.readInt();
+		
+		// Read the operator used for the recording
+		result.operator = new float[is.readInt()];
+		StreamFormat.readFloats(is, result.operator);
+		
+		if (result.version >= StreamFormat.VERSION_INDEXED) {
+			result.compression = is.readInt();
+			if (!StreamFormat.isSupportedCompression(result.compression)) {
+				throw new IOException("Unsupported compression: " + result.compression);
+			}
+		}
+		
+		return result;
+	}
+	
+	public void write(DataOutput os) throws IOException {
+		os.writeInt(StreamFormat.MAGIC);
+		os.writeInt(version);
+		os.writeFloat(samplerate);
+		os.writeFloat(baseline);
+		os.writeInt(samplecount);
+		os.writeInt(width);
+		os.writeInt(height);
+		
+		// Write the operator used for the recording
+		os.writeInt(operator.length);
+		StreamFormat.writeFloats(os, operator);
+		
+		if (version >= StreamFormat.VERSION_INDEXED) {
+			os.writeInt(compression);
+		}
+	}
+}
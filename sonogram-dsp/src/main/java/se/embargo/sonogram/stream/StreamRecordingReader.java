@@ -0,0 +1,127 @@
+package se.embargo.sonogram.stream;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads VERSION_STREAM recordings. The recording is a single deflate stream so
+ * seeking backwards reopens the file and seeking forwards decodes every frame
+ * in between. Timestamps are derived from the frame rate of the sonar.
+ */
+public class StreamRecordingReader implements IRecordingReader {
+	private final File _file;
+	private DataInputStream _is;
+	private StreamHeader _header;
+	private short[] _skip;
+	private int _position = 0;
+
+	/**
+	 * Time between frames in nanoseconds
+	 */
+	private final double _interval;
+
+	/**
+	 * @throws IOException	If the file isn't a VERSION_STREAM recording
+	 */
+	public StreamRecordingReader(File file) throws IOException {
+		_file = file;
+		open();
+
+		if (_header.version != StreamFormat.VERSION_STREAM) {
+			close();
+			throw new IOException("Unsupported version number: " + _header.version);
+		}
+
+		// Each frame carries the operator length of samples from the previous frame
+		int hop = _header.samplecount / 2 - _header.operator.length;
+		_interval = 1e9 * Math.max(hop, 1) / _header.samplerate;
+	}
+
+	@Override
+	public StreamHeader getHeader() {
+		return _header;
+	}
+
+	@Override
+	public int getFrameCount() {
+		return -1;
+	}
+
+	@Override
+	public boolean isSeekable() {
+		return false;
+	}
+
+	@Override
+	public int getPosition() {
+		return _position;
+	}
+
+	@Override
+	public void seek(int frame) throws IOException {
+		frame = Math.max(frame, 0);
+		if (frame < _position) {
+			close();
+			open();
+		}
+
+		if (_skip == null) {
+			_skip = new short[_header.samplecount];
+		}
+
+		while (_position < frame && read(_skip, 0));
+	}
+
+	@Override
+	public boolean read(short[] samples, int offset) throws IOException {
+		try {
+			StreamFormat.readFrame(_is, samples, offset, _header.samplecount);
+		}
+		catch (EOFException e) {
+			return false;
+		}
+
+		_position++;
+		return true;
+	}
+
+	@Override
+	public int read(int first, int count, short[] samples, int offset) throws IOException {
+		seek(first);
+
+		int i = 0;
+		for (; i < count && read(samples, offset + i * _header.samplecount); i++);
+		return i;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return (long)((_position - 1) * _interval);
+	}
+
+	@Override
+	public float getBaseline() {
+		return _header.baseline;
+	}
+
+	@Override
+	public void close() throws IOException {
+		_is.close();
+	}
+
+	private void open() throws IOException {
+		_is = StreamFormat.createInputStream(new FileInputStream(_file));
+		_position = 0;
+
+		try {
+			_header = StreamHeader.read(_is);
+		}
+		catch (IOException e) {
+			_is.close();
+			throw e;
+		}
+	}
+}
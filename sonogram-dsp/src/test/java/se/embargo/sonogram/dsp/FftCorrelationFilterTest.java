@@ -0,0 +1,76 @@
+package se.embargo.sonogram.dsp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FftCorrelationFilterTest {
+	private static final int SAMPLERATE = 48000;
+
+	/**
+	 * Chirp of the live sonar, 20ms from samplerate/16 to 7/16 of the sample rate
+	 */
+	private static final float[] OPERATOR = Signals.createLinearChirp(
+		SAMPLERATE, 20, SAMPLERATE / 16f, SAMPLERATE / 2f - SAMPLERATE / 16f);
+
+	private static final int RESOLUTION = 3840;
+	private static final int SAMPLECOUNT = (RESOLUTION + OPERATOR.length) * 2;
+
+	@Test
+	public void testFullScale() {
+		Random random = new Random(1);
+		short[] samples = new short[SAMPLECOUNT];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short)random.nextInt(1 << 16);
+		}
+
+		assertMatchesDirect(samples);
+	}
+
+	@Test
+	public void testEchoes() {
+		// Echoes of the operator in both channels, with one close to the end of the frame
+		Random random = new Random(2);
+		float[] mixed = new float[SAMPLECOUNT];
+		for (int i = 0; i < mixed.length; i++) {
+			mixed[i] = (float)random.nextGaussian() * 0.01f;
+		}
+
+		for (int delay : new int[] {0, 701, RESOLUTION - 10}) {
+			for (int k = 0; k < OPERATOR.length; k++) {
+				mixed[(delay + k) * 2] += OPERATOR[k] * 0.5f;
+				mixed[(delay + k) * 2 + 1] += OPERATOR[k] * 0.25f;
+			}
+		}
+
+		assertMatchesDirect(Signals.toShort(mixed, 1.0f));
+	}
+
+	/**
+	 * Compares the output of FftCorrelationFilter with CrossCorrelationFilter, within the
+	 * tolerance stated by FftCorrelationFilter of 1e-5 * sum(abs(operator))
+	 */
+	private static void assertMatchesDirect(short[] samples) {
+		float sum = 0.0f;
+		for (float tap : OPERATOR) {
+			sum += Math.abs(tap);
+		}
+
+		final float tolerance = 1e-5f * sum;
+		float[] expected = filter(new CrossCorrelationFilter(), samples);
+		float[] actual = filter(new FftCorrelationFilter(), samples);
+
+		for (int i = 0, il = (SAMPLECOUNT / 2 - OPERATOR.length) * 2; i < il; i++) {
+			assertEquals("Output " + i, expected[i], actual[i], tolerance);
+		}
+	}
+
+	private static float[] filter(ISignalFilter filter, short[] samples) {
+		ISignalFilter.Item item = new ISignalFilter.Item(SAMPLERATE, SAMPLECOUNT);
+		item.init(OPERATOR, samples, null, null, null);
+		filter.accept(item);
+		return item.output;
+	}
+}
@@ -0,0 +1,106 @@
+package se.embargo.sonogram.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PredictiveCodecTest {
+	/**
+	 * Interleaved sample count of a live sonar frame, 4801 samples per channel
+	 */
+	private static final int SAMPLECOUNT = 9602;
+
+	@Test
+	public void testRandom() throws IOException {
+		Random random = new Random(1);
+		short[] samples = new short[SAMPLECOUNT];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short)random.nextInt(1 << 16);
+		}
+
+		assertRoundTrip(samples);
+	}
+
+	@Test
+	public void testFullScale() throws IOException {
+		short[] samples = new short[SAMPLECOUNT];
+		for (int i = 0; i < samples.length / 2; i++) {
+			double value = Math.sin(i * 0.3);
+			samples[i * 2] = (short)Math.round(value * Short.MAX_VALUE);
+			samples[i * 2 + 1] = (short)(value < 0.0 ? Short.MIN_VALUE : Short.MAX_VALUE);
+		}
+
+		assertRoundTrip(samples);
+	}
+
+	@Test
+	public void testExtremes() throws IOException {
+		// Left and right at opposite extremes give the widest side channel
+		short[] samples = new short[SAMPLECOUNT];
+		for (int i = 0; i < samples.length; i += 2) {
+			samples[i] = Short.MAX_VALUE;
+			samples[i + 1] = Short.MIN_VALUE;
+		}
+
+		assertRoundTrip(samples);
+
+		// Alternating extremes give the largest residuals
+		for (int i = 0; i < samples.length; i += 2) {
+			samples[i] = (i & 2) == 0 ? Short.MIN_VALUE : Short.MAX_VALUE;
+			samples[i + 1] = (i & 2) == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+		}
+
+		assertRoundTrip(samples);
+	}
+
+	@Test
+	public void testSilent() throws IOException {
+		assertRoundTrip(new short[SAMPLECOUNT]);
+	}
+
+	@Test
+	public void testOddLength() throws IOException {
+		// Channel lengths which don't fill the last partition, or the warm-up of the predictors
+		Random random = new Random(2);
+		for (int length : new int[] {1, 2, 3, 5, 255, 257, 513}) {
+			short[] samples = new short[length * 2];
+			for (int i = 0; i < samples.length; i++) {
+				samples[i] = (short)(random.nextGaussian() * 1000.0);
+			}
+
+			assertRoundTrip(samples);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOddSampleCount() {
+		new PredictiveCodec(SAMPLECOUNT + 1);
+	}
+
+	/**
+	 * Encodes and decodes the samples at an offset within larger buffers
+	 */
+	private static void assertRoundTrip(short[] samples) throws IOException {
+		final int offset = 3;
+		PredictiveCodec codec = new PredictiveCodec(samples.length);
+		short[] input = new short[samples.length + offset * 2];
+		System.arraycopy(samples, 0, input, offset, samples.length);
+
+		byte[] block = new byte[codec.getMaxBlockLength() + offset];
+		int length = codec.encode(input, offset, block);
+		assertTrue("Block exceeds the maximum length", length <= codec.getMaxBlockLength());
+
+		// Move the block to an offset to check the source offset of decode()
+		System.arraycopy(block, 0, block, offset, length);
+		short[] output = new short[samples.length + offset * 2];
+		new PredictiveCodec(samples.length).decode(block, offset, length, output, offset);
+
+		short[] decoded = new short[samples.length];
+		System.arraycopy(output, offset, decoded, 0, samples.length);
+		assertArrayEquals(samples, decoded);
+	}
+}